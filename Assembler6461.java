@@ -1,5 +1,6 @@
 import java.io.*;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.regex.*;
 
@@ -7,29 +8,42 @@ import java.util.regex.*;
  * CSCI 6461 Project 0 Assembler (Two-pass)
  *
  * Outputs:
- *  1) Load file:   <octal_addr(6)> <octal_word(6)>
- *  2) Listing file:<octal_addr(6)> <octal_word(6)> <original line>
+ *  1) Load file:   <octal_addr(6)> <octal_word(6)>, sorted by address (contiguous segments)
+ *  2) Listing file:<octal_addr(6)> <octal_word(6)> <original line>, then a memory map
+ *     (--cycles adds estimated cycles + memory references per line and a block summary;
+ *     --load-only skips it, Relister6461 rebuilds it later)
+ *  3) Source map:  <octal_addr(6)> <source line> <words> per listing entry
  *
  * Supported directives:
- *  - LOC <decimal>
- *  - Data <decimal | label>
+ *  - LOC <expr>
+ *  - Data <expr>
+ *  - Name: EQU <expr>
+ *  - LTORG  (place literals referenced since the previous LTORG)
+ *  - SECTION / GLOBAL / EXTERN  (object mode only, see Linker6461)
+ *  - INCLUDE <file>, Name: MACRO p1,... / ENDM  (expanded before pass 1)
+ *  - SPACE n / FILL n,value / WORDS v1,v2,...  (block data; --compact-load writes runs)
  * Supported labels:
  *  - "Label:" at line start (may be followed by instruction/directive)
+ * Operands:
+ *  - integer expressions over decimals, labels and EQU names: + - * / & | << >> ( )
  *
- * Instruction encodings follow the ISA document formats.
+ * Instruction encodings follow the ISA document formats, as described once in isa6461.txt
+ * (encoders and range checks are generated into Isa6461.java by IsaGen6461).
  */
 public class Assembler6461 {
 
     // ========== Models ==========
     static class ParsedLine {
         final int lineNo;
-        final String original;
+        final String original; // null when parsed without text (--load-only)
         final String codePart; // without comments, trimmed
         final String label;    // may be null
         final String op;       // may be null (blank/comment only)
         final List<String> operands; // already split by ',' and trimmed
         final boolean generatesWord; // Data or instruction (not LOC)
         int location = -1; // assigned in pass1 if generatesWord
+        String origin;     // "file:line" / "macro NAME, file:line" for expanded lines; null otherwise
+        boolean synthetic; // made by the assembler (pool LOC, literal, pointer); the map carries its text
 
         ParsedLine(int lineNo, String original, String codePart,
                    String label, String op, List<String> operands, boolean generatesWord) {
@@ -41,504 +55,2849 @@ public class Assembler6461 {
             this.operands = operands;
             this.generatesWord = generatesWord;
         }
+
+        // Copies keep the origin of the line they replace
+        ParsedLine withOperands(List<String> ops) {
+            return copy(lineNo, op, ops, generatesWord, origin);
+        }
+
+        ParsedLine withoutOp() {
+            return copy(lineNo, null, List.of(), false, origin);
+        }
+
+        ParsedLine withLine(int newLineNo, String newOrigin) {
+            return copy(newLineNo, op, operands, generatesWord, newOrigin);
+        }
+
+        private ParsedLine copy(int n, String o, List<String> ops, boolean gen, String from) {
+            ParsedLine pl = new ParsedLine(n, original, codePart, label, o, ops, gen);
+            pl.origin = from;
+            pl.synthetic = synthetic;
+            return pl;
+        }
     }
 
-    // ========== Opcode Tables (octal in spec; store as int value) ==========
-    // Load/Store
+    // ========== Opcode Tables ==========
+    // Mnemonic -> octal opcode and operand syntax, from isa6461.txt through the generated Isa6461
     static final Map<String, Integer> OPC = new HashMap<>();
+    static final Map<String, Fmt> FMT = new HashMap<>();
     static {
-        // Misc
-        OPC.put("HLT",  00);
-        OPC.put("TRAP", 030);
-
-        // Load/Store
-        OPC.put("LDR",  01);
-        OPC.put("STR",  02);
-        OPC.put("LDA",  03);
-        OPC.put("LDX",  041);
-        OPC.put("STX",  042);
-
-        // Transfer
-        OPC.put("JZ",   010);
-        OPC.put("JNE",  011);
-        OPC.put("JCC",  012);
-        OPC.put("JMA",  013);
-        OPC.put("JSR",  014);
-        OPC.put("RFS",  015);
-        OPC.put("SOB",  016);
-        OPC.put("JGE",  017);
-
-        // Arithmetic/Logical (memory/immediate)
-        OPC.put("AMR",  04);
-        OPC.put("SMR",  05);
-        OPC.put("AIR",  06);
-        OPC.put("SIR",  07);
-
-        // Reg-to-reg
-        OPC.put("MLT",  070);
-        OPC.put("DVD",  071);
-        OPC.put("TRR",  072);
-        OPC.put("AND",  073);
-        OPC.put("ORR",  074);
-        OPC.put("NOT",  075);
-
-        // Shift/Rotate
-        OPC.put("SRC",  031);
-        OPC.put("RRC",  032);
-
-        // I/O
-        OPC.put("IN",   061);
-        OPC.put("OUT",  062);
-        OPC.put("CHK",  063);
-
-        // Floating/Vector (optional for assembler; safe to support)
-        OPC.put("FADD", 033);
-        OPC.put("FSUB", 034);
-        OPC.put("VADD", 035);
-        OPC.put("VSUB", 036);
-        OPC.put("CNVRT",037);
-        OPC.put("LDFR", 050);
-        OPC.put("STFR", 051);
+        Isa6461.tables(OPC, FMT);
+    }
+
+    // ========== Operand Formats (source syntax per mnemonic) ==========
+    // The syntax column of isa6461.txt; address-operand positions and cost keys follow it.
+    enum Fmt {
+        NONE,   // HLT
+        TRAP,   // code
+        LS,     // r,x,address[,I]  (JCC: cc,x,address[,I])
+        XADDR,  // x,address[,I]    (R=0, IX=x)
+        IMM,    // immed            (RFS)
+        RI,     // r,immed          (AIR/SIR)
+        RR,     // rx,ry
+        R,      // rx               (NOT)
+        SHIFT,  // r,count,L/R,A/L
+        IO      // r,devid
     }
 
     // ========== Entry ==========
     public static void main(String[] args) throws Exception {
-        Path in = Paths.get("source.src");
-        Path loadOut = Paths.get("output.load");
-        Path listOut = Paths.get("output.lst");
+        Options opt = Options.parse(args);
+        List<String> lines = Files.readAllLines(opt.in);
+
+        if (opt.check) {
+            List<Diagnostic> diags = check(lines, opt);
+            for (Diagnostic d : diags) System.out.println(opt.in + ":" + d);
+            long errors = diags.stream().filter(d -> !d.warning).count();
+            System.out.println(errors == 0 ? "No errors." : errors + " error(s).");
+            if (errors != 0) System.exit(1);
+            return;
+        }
 
-        List<String> lines = Files.readAllLines(in);
+        if (opt.object) {
+            Path objOut = Paths.get("output.obj");
+            writeObject(assembleObject("source", lines, opt.in), objOut);
+            System.out.println("Done.");
+            System.out.println("Object file: " + objOut.toAbsolutePath());
+            return;
+        }
 
-        // Parse all lines
-        List<ParsedLine> parsed = parseLines(lines);
+        // Parse all lines (--load-only keeps no source text; Relister6461 rebuilds the listing)
+        List<ParsedLine> parsed = preprocess(parseLines(lines, opt.listOut != null), opt.in);
+        List<LiteralPool> literals = collectLiterals(parsed);
 
         // Pass 1: build symbol table + assign locations
         Map<String, Integer> symtab = new HashMap<>();
         pass1AssignLocations(parsed, symtab);
+        placeLowLiterals(parsed, symtab, literals.get(literals.size() - 1));
+
+        // Optional: peephole optimization (re-runs pass 1 if anything was removed)
+        if (opt.optimize) {
+            List<String> kept = new ArrayList<>();
+            List<String> saved = optimize(parsed, symtab, kept);
+            System.out.println("Optimizer removed " + saved.size() + " instruction(s).");
+            for (String s : saved) System.out.println("  " + s);
+            if (!kept.isEmpty()) {
+                System.out.println("Optimizer kept " + kept.size() + " candidate(s).");
+                for (String s : kept) System.out.println("  " + s);
+            }
+        }
+
+        // Optional: move hot far targets into low memory (re-runs pass 1 if anything moved)
+        Layout layout = null;
+        if (opt.layout) {
+            layout = (opt.layoutProfile != null)
+                    ? layout(parsed, symtab, profileHeat(readSourceMap(opt.mapOut), Simulator6461.readProfile(opt.layoutProfile)),
+                            "profile " + opt.layoutProfile, layoutCosts(opt), opt.relax)
+                    : layout(parsed, symtab, loopHeat(parsed, symtab), "loop-nesting heuristic", layoutCosts(opt), opt.relax);
+            System.out.println("Layout moved " + layout.moves.size() + " item(s) into low memory.");
+            for (String s : layout.moves) System.out.println("  " + s);
+        }
+
+        // Rewrite out-of-range address operands (re-runs pass 1 until stable)
+        if (opt.relax) {
+            List<String> relaxed = relaxAddresses(parsed, symtab);
+            if (!relaxed.isEmpty()) {
+                System.out.println("Relaxed " + relaxed.size() + " long address operand(s).");
+                for (String s : relaxed) System.out.println("  " + s);
+            }
+        }
+
+        if (layout != null) {
+            for (String s : layout.savings(parsed, symtab)) System.out.println("  " + s);
+        }
+
+        if (!opt.overlapError) {
+            for (MemoryMap.Overlap o : MemoryMap.of(parsed).overlaps) System.out.println("Warning: " + o.message());
+        }
 
         // Pass 2: generate words + write outputs
-        pass2Generate(parsed, symtab, loadOut, listOut);
+        pass2Generate(parsed, symtab, opt, literalPoolNotes(literals));
 
         System.out.println("Done.");
-        System.out.println("Load file:   " + loadOut.toAbsolutePath());
-        System.out.println("Listing file:" + listOut.toAbsolutePath());
+        System.out.println("Load file:   " + opt.loadOut.toAbsolutePath());
+        if (opt.listOut != null) System.out.println("Listing file:" + opt.listOut.toAbsolutePath());
+        System.out.println("Source map:  " + opt.mapOut.toAbsolutePath());
     }
 
-    // ========== Parsing ==========
-    static List<ParsedLine> parseLines(List<String> lines) {
-        List<ParsedLine> out = new ArrayList<>();
-        Pattern labelPat = Pattern.compile("^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*:\\s*(.*)$");
+    // ========== Options ==========
+    //   --cycles             annotate listing with cycle / memory-traffic estimates
+    //   --cost-table <file>  override the default cost table (implies --cycles)
+    //   --optimize           run the peephole optimizer between pass 1 and pass 2
+    //   --no-relax           reject address operands above 31 instead of relaxing them
+    //   --obj                write a relocatable object (output.obj) for Linker6461 instead
+    //   --compact-load       write runs of equal words as one load record (see writeLoadRecord)
+    //   --check              report every error (line:column) and write no outputs
+    //   --overlap-error      reject words that overwrite earlier ones (default: warn)
+    //   --load-only          write output.load and output.map only (no listing, no source text)
+    //   --layout             move hot far Data words and code blocks into low memory (loop heuristic)
+    //   --layout-profile <f> --layout weighted by a Simulator6461 --profile of the previous build
+    //                        (matched to source lines through output.map, read before it is rewritten)
+    static class Options {
+        Path in = Paths.get("source.src");
+        Path loadOut = Paths.get("output.load");
+        Path listOut = Paths.get("output.lst"); // null: no listing
+        Path mapOut = Paths.get("output.map"); // null: no source map
+        CostTable costs;                       // null: no estimates
+        boolean optimize;
+        boolean relax = true;
+        boolean object;
+        boolean compactLoad;
+        boolean check;
+        boolean overlapError;
+        boolean layout;
+        Path layoutProfile;                    // null: loop-nesting heuristic
+
+        static Options parse(String[] args) throws IOException {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cycles":
+                        if (o.costs == null) o.costs = CostTable.defaults();
+                        break;
+                    case "--cost-table":
+                        if (i + 1 >= args.length) throw new IllegalArgumentException("--cost-table expects a file name");
+                        o.costs = CostTable.load(Paths.get(args[++i]));
+                        break;
+                    case "--optimize":
+                        o.optimize = true;
+                        break;
+                    case "--no-relax":
+                        o.relax = false;
+                        break;
+                    case "--obj":
+                        o.object = true;
+                        break;
+                    case "--compact-load":
+                        o.compactLoad = true;
+                        break;
+                    case "--check":
+                        o.check = true;
+                        break;
+                    case "--overlap-error":
+                        o.overlapError = true;
+                        break;
+                    case "--load-only":
+                        o.listOut = null;
+                        break;
+                    case "--layout":
+                        o.layout = true;
+                        break;
+                    case "--layout-profile":
+                        if (i + 1 >= args.length) throw new IllegalArgumentException("--layout-profile expects a file name");
+                        o.layout = true;
+                        o.layoutProfile = Paths.get(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option '" + args[i] + "'");
+                }
+            }
+            return o;
+        }
+    }
+
+    // ========== Check Mode (--check) ==========
+    // Runs parsing, pass 1 and encoding over the whole file and collects every error instead
+    // of stopping at the first. Lines are parsed and encoded in parallel (both are per-line
+    // and only read the symbol table); pass 1 is sequential but replaces a failing line by a
+    // stand-in and carries on. Preprocessor errors (missing INCLUDE, bad MACRO) end the check.
+    // In object mode only the first error is reported.
+    static class Diagnostic {
+        final int lineNo, column; // 1-based; column 0: whole line
+        final String message;
+        final boolean warning;    // reported, but not an error (overlaps without --overlap-error)
+
+        Diagnostic(int lineNo, int column, String message, boolean warning) {
+            this.lineNo = lineNo;
+            this.column = column;
+            this.message = message;
+            this.warning = warning;
+        }
 
-        for (int i = 0; i < lines.size(); i++) {
-            String original = lines.get(i);
+        Diagnostic asWarning() {
+            return new Diagnostic(lineNo, column, message, true);
+        }
 
-            // Separate comment
-            String code = original;
-            int semi = code.indexOf(';');
-            if (semi >= 0) code = code.substring(0, semi);
-            code = code.trim();
+        // Column of the quoted token in the message ('X'), else of the first non-blank
+        static Diagnostic of(ParsedLine pl, IllegalArgumentException e) {
+            return of(pl.lineNo, pl.original, e.getMessage());
+        }
 
-            if (code.isEmpty()) {
-                out.add(new ParsedLine(i + 1, original, "", null, null, List.of(), false));
-                continue;
+        static Diagnostic of(int lineNo, String text, String message) {
+            String msg = message.replaceFirst(" at line " + lineNo + "\\b", "");
+            int col = 0;
+            if (text != null) {
+                Matcher m = Pattern.compile("'([^']+)'").matcher(msg);
+                int at = m.find() ? text.indexOf(m.group(1)) : -1;
+                if (at < 0) at = text.length() - text.stripLeading().length();
+                col = at + 1;
             }
+            return new Diagnostic(lineNo, col, msg, false);
+        }
 
-            String label = null;
-            String rest = code;
+        @Override
+        public String toString() {
+            return lineNo + ":" + column + ": " + (warning ? "warning: " : "") + message;
+        }
+    }
 
-            Matcher m = labelPat.matcher(code);
-            if (m.matches()) {
-                label = m.group(1);
-                rest = m.group(2).trim();
+    static List<Diagnostic> check(List<String> lines, Options opt) {
+        List<Diagnostic> diags = new ArrayList<>();
+        if (opt.object) {
+            try {
+                assembleObject("source", lines, opt.in);
+            } catch (IllegalArgumentException e) {
+                diags.add(lineDiagnostic(lines, e));
             }
+            return diags;
+        }
 
-            if (rest.isEmpty()) {
-                // label-only line
-                out.add(new ParsedLine(i + 1, original, code, label, null, List.of(), false));
-                continue;
+        List<ParsedLine> parsed = java.util.stream.IntStream.range(0, lines.size()).parallel()
+                .mapToObj(i -> parseLine(i + 1, lines.get(i)))
+                .collect(java.util.stream.Collectors.toCollection(ArrayList::new));
+        try {
+            parsed = preprocess(parsed, opt.in);
+        } catch (IllegalArgumentException e) {
+            diags.add(lineDiagnostic(lines, e));
+            return diags;
+        }
+
+        List<LiteralPool> literals = collectLiterals(parsed, diags);
+        Map<String, Integer> symtab = new HashMap<>();
+        pass1AssignLocations(parsed, symtab, diags);
+        try {
+            placeLowLiterals(parsed, symtab, literals.get(literals.size() - 1));
+            if (opt.relax) relaxAddresses(parsed, symtab);
+            for (MemoryMap.Overlap o : MemoryMap.of(parsed).overlaps) {
+                Diagnostic d = lineDiagnostic(lines, new IllegalArgumentException(o.message()));
+                diags.add(opt.overlapError ? d : d.asWarning());
             }
+        } catch (IllegalArgumentException e) {
+            diags.add(lineDiagnostic(lines, e));
+        }
+
+        diags.addAll(parsed.parallelStream()
+                .filter(pl -> pl.op != null && pl.generatesWord)
+                .map(pl -> {
+                    try {
+                        if (isBlockData(pl.op)) encodeBlock(pl, symtab);
+                        else if (pl.op.equals("DATA")) encodeData(pl, symtab);
+                        else encodeInstruction(pl, symtab);
+                        return null;
+                    } catch (IllegalArgumentException e) {
+                        return Diagnostic.of(pl, e);
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(java.util.stream.Collectors.toList()));
 
-            // Tokenize op and operands
-            String[] parts = rest.split("\\s+", 2);
-            String op = parts[0].trim().toUpperCase(Locale.ROOT);
-            String ops = (parts.length > 1) ? parts[1].trim() : "";
+        diags.sort(Comparator.<Diagnostic>comparingInt(d -> d.lineNo).thenComparingInt(d -> d.column));
+        return diags;
+    }
 
-            List<String> operands = new ArrayList<>();
-            if (!ops.isEmpty()) {
-                // Split by comma; keep simple
-                for (String tok : ops.split(",")) {
-                    String t = tok.trim();
-                    if (!t.isEmpty()) operands.add(t);
-                }
+    // Diagnostic for an error raised outside a single line's processing ("... at line N ...")
+    private static Diagnostic lineDiagnostic(List<String> lines, IllegalArgumentException e) {
+        Matcher m = Pattern.compile("at line (\\d+)").matcher(e.getMessage());
+        int n = m.find() ? Integer.parseInt(m.group(1)) : 0;
+        return Diagnostic.of(n, (n >= 1 && n <= lines.size()) ? lines.get(n - 1) : null, e.getMessage());
+    }
+
+    // ========== Parsing ==========
+    // Directives that never allocate a word
+    static final Set<String> NON_ALLOCATING = Set.of("LOC", "LTORG", "SECTION", "GLOBAL", "EXTERN",
+            "INCLUDE", "MACRO", "ENDM", "EQU");
+
+    static final Pattern LABEL = Pattern.compile("^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*:\\s*(.*)$");
+    static final Pattern SPACES = Pattern.compile("\\s+");
+
+    static List<ParsedLine> parseLines(List<String> lines) {
+        return parseLines(lines, true);
+    }
+
+    // keepText = false: drop each line's text once it is tokenised (nothing will list it)
+    static List<ParsedLine> parseLines(List<String> lines, boolean keepText) {
+        List<ParsedLine> out = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) out.add(parseLine(i + 1, lines.get(i), keepText));
+        return out;
+    }
+
+    // One source line; independent of every other line (--check parses in parallel)
+    static ParsedLine parseLine(int lineNo, String original) {
+        return parseLine(lineNo, original, true);
+    }
+
+    static ParsedLine parseLine(int lineNo, String text, boolean keepText) {
+        String original = keepText ? text : null;
+
+        // Separate comment
+        String code = text;
+        int semi = code.indexOf(';');
+        if (semi >= 0) code = code.substring(0, semi);
+        code = code.trim();
+
+        if (code.isEmpty()) {
+            return new ParsedLine(lineNo, original, "", null, null, List.of(), false);
+        }
+
+        String label = null;
+        String rest = code;
+
+        Matcher m = LABEL.matcher(code);
+        if (m.matches()) {
+            label = m.group(1);
+            rest = m.group(2).trim();
+        }
+
+        if (rest.isEmpty()) {
+            // label-only line
+            return new ParsedLine(lineNo, original, code, label, null, List.of(), false);
+        }
+
+        // Tokenize op and operands
+        String[] parts = SPACES.split(rest, 2);
+        String op = parts[0].trim().toUpperCase(Locale.ROOT);
+        String ops = (parts.length > 1) ? parts[1].trim() : "";
+
+        List<String> operands = new ArrayList<>();
+        if (!ops.isEmpty()) {
+            // Split by comma; keep simple
+            for (String tok : ops.split(",")) {
+                String t = tok.trim();
+                if (!t.isEmpty()) operands.add(t);
             }
+        }
+
+        boolean generatesWord = !NON_ALLOCATING.contains(op);
+        return new ParsedLine(lineNo, original, code, label, op, operands, generatesWord);
+    }
 
-            boolean generatesWord = !(op.equals("LOC")); // LOC does not allocate
-            out.add(new ParsedLine(i + 1, original, code, label, op, operands, generatesWord));
+    // ========== Preprocessor: INCLUDE / MACRO ==========
+    //  - INCLUDE <path>            splices in another source (relative to the including file)
+    //  - Name: MACRO p1,p2,...     defines a macro up to ENDM; invoke as "Name a1,a2,..."
+    //    Parameters are replaced as whole words in the body; \@ becomes a number unique to
+    //    each expansion, for labels inside macros.
+    // Expanded lines keep the main-file line number of the INCLUDE / invocation (errors and
+    // the source map point at the main file) and record their own file:line in origin.
+    //
+    // Included files are tokenised once and cached by absolute path + modification time, so
+    // repeated includes (and concurrent assemblies in Linker6461) share one parse.
+    static final int MAX_EXPANSION_DEPTH = 32;
+
+    static class CachedSource {
+        final FileTime mtime;
+        final List<ParsedLine> lines;
+        CachedSource(FileTime mtime, List<ParsedLine> lines) { this.mtime = mtime; this.lines = lines; }
+    }
+
+    static final Map<Path, CachedSource> SOURCE_CACHE = new java.util.concurrent.ConcurrentHashMap<>();
+
+    static class Macro {
+        final String name;
+        final List<String> params;
+        final List<String> body = new ArrayList<>();
+        final String file;
+        final int defLine;
+        Macro(String name, List<String> params, String file, int defLine) {
+            this.name = name; this.params = params; this.file = file; this.defLine = defLine;
         }
-        return out;
     }
 
-    // ========== Pass 1 ==========
-    static void pass1AssignLocations(List<ParsedLine> parsed, Map<String, Integer> symtab) {
-        int loc = 0;
+    static class Preprocessor {
+        final Map<String, Macro> macros = new HashMap<>();
+        final Set<Path> includes = new LinkedHashSet<>(); // every file spliced in (for caches)
+        final Deque<Path> stack = new ArrayDeque<>();
+        int expansions = 0;
+    }
 
-        for (ParsedLine pl : parsed) {
-            if (pl.op != null && pl.op.equals("LOC")) {
-                if (pl.operands.size() != 1) {
-                    throw new IllegalArgumentException("LOC expects 1 operand at line " + pl.lineNo);
+    static List<ParsedLine> preprocess(List<ParsedLine> parsed, Path file) {
+        return preprocess(parsed, file, new Preprocessor());
+    }
+
+    static List<ParsedLine> preprocess(List<ParsedLine> parsed, Path file, Preprocessor pp) {
+        List<ParsedLine> out = new ArrayList<>(parsed.size());
+        pp.stack.push(file.toAbsolutePath().normalize());
+        expand(parsed, file, -1, null, pp, 0, out);
+        pp.stack.pop();
+        return out;
+    }
+
+    // topLine < 0: lines are the main file itself
+    private static void expand(List<ParsedLine> lines, Path file, int topLine, String fileName,
+                               Preprocessor pp, int depth, List<ParsedLine> out) {
+        if (depth > MAX_EXPANSION_DEPTH) {
+            throw new IllegalArgumentException("INCLUDE/MACRO nesting deeper than " + MAX_EXPANSION_DEPTH + " at line " + topLine);
+        }
+        Macro defining = null;
+
+        for (ParsedLine pl : lines) {
+            int lineNo = (topLine < 0) ? pl.lineNo : topLine;
+            String where = (fileName == null) ? null : fileName + ":" + pl.lineNo;
+
+            if (defining != null) {
+                if ("ENDM".equals(pl.op)) {
+                    if (pl.label != null) defining.body.add(pl.label + ":");
+                    pp.macros.put(defining.name, defining);
+                    defining = null;
+                } else if ("MACRO".equals(pl.op)) {
+                    throw new IllegalArgumentException("Nested MACRO definition at line " + lineNo + at(where));
+                } else {
+                    defining.body.add(pl.original != null ? pl.original : pl.codePart);
                 }
-                int newLoc = parseDecimal(pl.operands.get(0), pl.lineNo);
-                if (newLoc < 0) throw new IllegalArgumentException("LOC must be >= 0 at line " + pl.lineNo);
-                loc = newLoc;
-                pl.location = loc;
+                continue;
+            }
 
-                // If label exists on LOC line, bind it to the new location
-                if (pl.label != null) {
-                    if (symtab.containsKey(pl.label)) {
-                        throw new IllegalArgumentException("Duplicate label '" + pl.label + "' at line " + pl.lineNo);
-                    }
-                    symtab.put(pl.label, loc);
+            if ("MACRO".equals(pl.op)) {
+                if (pl.label == null) throw new IllegalArgumentException("MACRO needs a name label (Name: MACRO ...) at line " + lineNo + at(where));
+                String name = pl.label.toUpperCase(Locale.ROOT);
+                if (OPC.containsKey(name) || NON_ALLOCATING.contains(name) || name.equals("DATA")) {
+                    throw new IllegalArgumentException("Macro name '" + pl.label + "' is reserved at line " + lineNo + at(where));
                 }
+                defining = new Macro(name, pl.operands, (fileName == null) ? file.getFileName().toString() : fileName, pl.lineNo);
                 continue;
             }
+            if ("ENDM".equals(pl.op)) {
+                throw new IllegalArgumentException("ENDM without MACRO at line " + lineNo + at(where));
+            }
 
-            // If label exists, record current loc (before processing op)
-            if (pl.label != null) {
-                if (symtab.containsKey(pl.label)) {
-                    throw new IllegalArgumentException("Duplicate label '" + pl.label + "' at line " + pl.lineNo);
+            if ("INCLUDE".equals(pl.op)) {
+                if (pl.operands.size() != 1) throw new IllegalArgumentException("INCLUDE expects 1 operand at line " + lineNo + at(where));
+                if (pl.label != null) out.add(pl.withLine(lineNo, where).withoutOp());
+                String name = pl.operands.get(0);
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) name = name.substring(1, name.length() - 1);
+                Path inc = file.resolveSibling(name).toAbsolutePath().normalize();
+                if (pp.stack.contains(inc)) throw new IllegalArgumentException("Recursive INCLUDE of " + name + " at line " + lineNo + at(where));
+                pp.includes.add(inc);
+                pp.stack.push(inc);
+                expand(loadCached(inc, lineNo), inc, lineNo, inc.getFileName().toString(), pp, depth + 1, out);
+                pp.stack.pop();
+                continue;
+            }
+
+            Macro m = (pl.op == null) ? null : pp.macros.get(pl.op);
+            if (m != null) {
+                if (pl.operands.size() != m.params.size()) {
+                    throw new IllegalArgumentException("Macro " + m.name + " expects " + m.params.size()
+                            + " arguments at line " + lineNo + at(where));
+                }
+                if (pl.label != null) out.add(pl.withLine(lineNo, where).withoutOp());
+                String unique = Integer.toString(++pp.expansions);
+                List<String> body = new ArrayList<>(m.body.size());
+                for (String b : m.body) {
+                    int semi = b.indexOf(';'); // comments are copied unchanged
+                    String t = (semi >= 0 ? b.substring(0, semi) : b).replace("\\@", unique);
+                    for (int k = 0; k < m.params.size(); k++) {
+                        t = t.replaceAll("\\b" + Pattern.quote(m.params.get(k)) + "\\b",
+                                Matcher.quoteReplacement(pl.operands.get(k)));
+                    }
+                    body.add(semi >= 0 ? t + b.substring(semi) : t);
                 }
-                symtab.put(pl.label, loc);
+                List<ParsedLine> expanded = parseLines(body);
+                List<ParsedLine> shifted = new ArrayList<>(expanded.size());
+                for (ParsedLine e : expanded) shifted.add(e.withLine(m.defLine + e.lineNo, null));
+                expand(shifted, file, lineNo, "macro " + m.name + ", " + m.file, pp, depth + 1, out);
+                continue;
             }
 
-            if (pl.op == null) continue;
+            out.add((topLine < 0) ? pl : pl.withLine(lineNo, where));
+        }
 
-            if (pl.generatesWord) {
-                pl.location = loc;
-                loc += 1;
+        if (defining != null) {
+            throw new IllegalArgumentException("MACRO " + defining.name + " has no ENDM (defined at "
+                    + defining.file + ":" + defining.defLine + ")");
+        }
+    }
+
+    private static String at(String where) {
+        return (where == null) ? "" : " (" + where + ")";
+    }
+
+    static List<ParsedLine> loadCached(Path p, int lineNo) {
+        try {
+            FileTime mtime = Files.getLastModifiedTime(p);
+            CachedSource c = SOURCE_CACHE.get(p);
+            if (c == null || !c.mtime.equals(mtime)) {
+                c = new CachedSource(mtime, Collections.unmodifiableList(parseLines(Files.readAllLines(p))));
+                SOURCE_CACHE.put(p, c);
             }
+            return c.lines;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read INCLUDE file " + p + " at line " + lineNo + ": " + e.getMessage(), e);
         }
     }
 
-    // ========== Pass 2 ==========
-    static void pass2Generate(List<ParsedLine> parsed,
-                              Map<String, Integer> symtab,
-                              Path loadOut, Path listOut) throws IOException {
-        try (BufferedWriter load = Files.newBufferedWriter(loadOut);
-             BufferedWriter lst = Files.newBufferedWriter(listOut)) {
+    // ========== Pass 1 ==========
+    static void pass1AssignLocations(List<ParsedLine> parsed, Map<String, Integer> symtab) {
+        pass1AssignLocations(parsed, symtab, null);
+    }
 
-            for (ParsedLine pl : parsed) {
-                if (pl.op != null && pl.op.equalsIgnoreCase("LOC")) {
-                    int addr = pl.location;
-                    String addrOct = fmt6(addr);
-                    String wordOct = "------";
-                    lst.write(addrOct + " " + wordOct + " " + pl.original);
-                    lst.newLine();
-                    continue;
+    // diags != null (--check): a failing line is reported and replaced by a stand-in
+    // (see standIn) instead of aborting, so every line gets laid out and checked.
+    // Lines are validated before anything is committed to symtab / locations.
+    static void pass1AssignLocations(List<ParsedLine> parsed, Map<String, Integer> symtab, List<Diagnostic> diags) {
+        int loc = 0;
+        List<ParsedLine> forwardEqus = new ArrayList<>();
+
+        for (int k = 0; k < parsed.size(); k++) {
+            ParsedLine pl = parsed.get(k);
+            try {
+                if (!forwardEqus.isEmpty() && ("LOC".equals(pl.op) || "SPACE".equals(pl.op) || "FILL".equals(pl.op))) {
+                    resolveForwardEqus(parsed, forwardEqus, symtab, false, diags);
                 }
+                pl = foldCount(pl, symtab);
 
-                if (!pl.generatesWord || pl.op == null) continue;
+                if ("EQU".equals(pl.op)) {
+                    defineEqu(pl, symtab, forwardEqus);
+                    parsed.set(k, pl);
+                    continue;
+                }
+                if ("SECTION".equals(pl.op)) {
+                    throw new IllegalArgumentException("SECTION needs object mode (--obj / Linker6461) at line " + pl.lineNo);
+                }
 
-                int word;
-                if (pl.op.equalsIgnoreCase("DATA")) {
-                    word = encodeData(pl, symtab);
-                } else {
-                    word = encodeInstruction(pl, symtab);
+                int newLoc = loc;
+                int words = 0;
+                if ("LOC".equals(pl.op)) {
+                    if (pl.operands.size() != 1) {
+                        throw new IllegalArgumentException("LOC expects 1 operand at line " + pl.lineNo);
+                    }
+                    newLoc = evalValue(pl.operands.get(0), symtab, pl.lineNo);
+                    if (newLoc < 0) throw new IllegalArgumentException("LOC must be >= 0 at line " + pl.lineNo);
+                } else if (pl.op != null && pl.generatesWord) {
+                    words = wordCount(pl);
+                }
+                if (pl.label != null && isDefined(pl.label, symtab, forwardEqus)) {
+                    throw new IllegalArgumentException("Duplicate label '" + pl.label + "' at line " + pl.lineNo);
                 }
 
-                int addr = pl.location;
-                String addrOct = fmt6(addr);
-                String wordOct = fmt6(word & 0xFFFF);
+                // A label binds to the current location (the new one on a LOC line)
+                parsed.set(k, pl);
+                loc = newLoc;
+                if (pl.label != null) symtab.put(pl.label, loc);
+                if ("LOC".equals(pl.op) || (pl.op != null && pl.generatesWord)) pl.location = loc;
+                loc += words;
+            } catch (IllegalArgumentException e) {
+                if (diags == null) throw e;
+                diags.add(Diagnostic.of(pl, e));
+                parsed.set(k, standIn(pl, symtab, forwardEqus));
+                k--; // lay out the stand-in instead
+            }
+        }
+        resolveForwardEqus(parsed, forwardEqus, symtab, true, diags);
+    }
 
-                // Load file: only non-blank generated lines
-                load.write(addrOct + " " + wordOct);
-                load.newLine();
+    private static boolean isDefined(String name, Map<String, Integer> symtab, List<ParsedLine> forwardEqus) {
+        if (symtab.containsKey(name)) return true;
+        for (ParsedLine eq : forwardEqus) {
+            if (eq.label.equals(name)) return true;
+        }
+        return false;
+    }
 
-                // Listing file: include original line
-                lst.write(addrOct + " " + wordOct + " " + pl.original);
-                lst.newLine();
-            }
+    // Stand-in for a line that failed pass 1 in check mode: keeps its label (unless that was the
+    // problem) and one word if it had any, so the lines after it are laid out and checked as usual
+    private static ParsedLine standIn(ParsedLine pl, Map<String, Integer> symtab, List<ParsedLine> forwardEqus) {
+        String label = (pl.label != null && !isDefined(pl.label, symtab, forwardEqus)) ? pl.label : null;
+        ParsedLine s;
+        if ("EQU".equals(pl.op) && label != null) {
+            s = new ParsedLine(pl.lineNo, pl.original, pl.codePart, label, "EQU", List.of("0"), false);
+        } else if (pl.op != null && pl.generatesWord) {
+            s = new ParsedLine(pl.lineNo, pl.original, pl.codePart, label, "DATA", List.of("0"), true);
+        } else {
+            s = new ParsedLine(pl.lineNo, pl.original, pl.codePart, label, null, List.of(), false);
         }
+        s.origin = pl.origin;
+        return s;
     }
 
-    // ========== Encoders ==========
-    static int encodeData(ParsedLine pl, Map<String, Integer> symtab) {
-        if (pl.operands.size() != 1) {
-            throw new IllegalArgumentException("Data expects 1 operand at line " + pl.lineNo);
+    // ========== EQU ==========
+    //   Name: EQU <expression>
+    // Binds Name to a value instead of a location. An EQU whose expression uses labels defined
+    // further down is evaluated as soon as they are known (at the latest, at the end of pass 1);
+    // LOC and SPACE/FILL counts can only use symbols known by their line.
+    static void defineEqu(ParsedLine pl, Map<String, Integer> symtab, List<ParsedLine> forward) {
+        if (pl.label == null) throw new IllegalArgumentException("EQU needs a label at line " + pl.lineNo);
+        requireOperands(pl, 1);
+        if (isDefined(pl.label, symtab, forward)) {
+            throw new IllegalArgumentException("Duplicate label '" + pl.label + "' at line " + pl.lineNo);
         }
-        String v = pl.operands.get(0);
-        int value;
-        if (isNumber(v)) {
-            value = parseDecimal(v, pl.lineNo);
+        if (symtab.keySet().containsAll(expr(pl.operands.get(0), pl.lineNo).symbols())) {
+            symtab.put(pl.label, evalValue(pl.operands.get(0), symtab, pl.lineNo));
         } else {
-            Integer a = symtab.get(v);
-            if (a == null) throw new IllegalArgumentException("Unknown label '" + v + "' at line " + pl.lineNo);
-            value = a;
+            forward.add(pl);
         }
-        return value & 0xFFFF;
     }
 
-    static int encodeInstruction(ParsedLine pl, Map<String, Integer> symtab) {
-        Integer opcodeOct = OPC.get(pl.op.toUpperCase(Locale.ROOT));
-        if (opcodeOct == null) {
-            throw new IllegalArgumentException("Unknown opcode '" + pl.op + "' at line " + pl.lineNo);
+    // finish: the remaining EQUs use undefined (or circular) symbols; report them.
+    // In check mode (diags != null) a failing EQU is reported and bound to 0 (in parsed too).
+    static void resolveForwardEqus(List<ParsedLine> parsed, List<ParsedLine> forward, Map<String, Integer> symtab,
+                                   boolean finish, List<Diagnostic> diags) {
+        boolean progress = true;
+        while (!forward.isEmpty() && progress) {
+            progress = false;
+            for (Iterator<ParsedLine> it = forward.iterator(); it.hasNext(); ) {
+                ParsedLine pl = it.next();
+                if (!symtab.keySet().containsAll(expr(pl.operands.get(0), pl.lineNo).symbols())) continue;
+                it.remove();
+                symtab.put(pl.label, equValue(parsed, pl, symtab, diags));
+                progress = true;
+            }
         }
-        int op6 = opcodeOct & 0b111111; // op is 6 bits
+        if (!finish) return;
+        for (ParsedLine pl : forward) symtab.put(pl.label, equValue(parsed, pl, symtab, diags));
+        forward.clear();
+    }
 
-        switch (pl.op.toUpperCase(Locale.ROOT)) {
-            // ---- Misc ----
-            case "HLT":
-                requireOperands(pl, 0);
-                return packLS(op6, 0, 0, 0, 0);
+    private static int equValue(List<ParsedLine> parsed, ParsedLine pl, Map<String, Integer> symtab, List<Diagnostic> diags) {
+        try {
+            return evalValue(pl.operands.get(0), symtab, pl.lineNo);
+        } catch (IllegalArgumentException e) {
+            if (diags == null) throw e;
+            diags.add(Diagnostic.of(pl, e));
+            parsed.set(parsed.indexOf(pl), pl.withOperands(List.of("0")));
+            return 0;
+        }
+    }
 
-            case "TRAP": {
-                requireOperands(pl, 1);
-                int code = parseDecimal(pl.operands.get(0), pl.lineNo);
-                if (code < 0 || code > 15) throw new IllegalArgumentException("TRAP code must be 0..15 at line " + pl.lineNo);
-                return packLS(op6, 0, 0, 0, code);
-            }
-
-            // ---- Load/Store: r,x,address[,I] ----
-            case "LDR":
-            case "STR":
-            case "LDA":
-            case "AMR":
-            case "SMR":
-            case "JZ":
-            case "JNE":
-            case "SOB":
-            case "JGE":
-            case "FADD":
-            case "FSUB": {
-                // For FADD/FSUB, r is fr (0..1) but still fits in 2 bits
-                ParsedLS ls = parseLS(pl, symtab, 3, true);
-                return packLS(op6, ls.r, ls.ix, ls.i, ls.addr5);
-            }
-
-            // ---- LDX/STX: x,address[,I] ; encoded: R=0, IX=x ----
-            case "LDX":
-            case "STX":
-            case "JMA":
-            case "JSR":
-            case "LDFR":
-            case "STFR": {
-                ParsedLS2 ls2 = parseXAddr(pl, symtab, 2, true);
-                // R ignored (0), IX = x
-                return packLS(op6, 0, ls2.x, ls2.i, ls2.addr5);
-            }
-
-            // ---- JCC: cc,x,address[,I] (cc in R field, x in IX) ----
-            case "JCC": {
-                ParsedLS ls = parseLS(pl, symtab, 3, true);
-                // Here "r" is cc
-                return packLS(op6, ls.r, ls.ix, ls.i, ls.addr5);
-            }
-
-            // ---- RFS: immed (address field) ----
-            case "RFS": {
-                requireOperands(pl, 1);
-                int imm = parseDecimal(pl.operands.get(0), pl.lineNo);
-                if (imm < 0 || imm > 31) throw new IllegalArgumentException("RFS immed must be 0..31 at line " + pl.lineNo);
-                return packLS(op6, 0, 0, 0, imm);
+    // ========== Peephole Optimizer (opt-in, between pass 1 and pass 2) ==========
+    // Removes instructions that cannot change machine state:
+    //  - AIR r,0 / SIR r,0
+    //  - JZ/JNE/JCC/JGE r,0,<next instruction>   (direct, unindexed)
+    //  - LDR r,0,a when r is already known to hold c(a) in the same basic block
+    //    (after LDR r,0,a or STR r,0,a with no intervening write to r or memory)
+    // Safety:
+    //  - code reachable from a label used as a Data operand (jump tables, pointers)
+    //    is never touched, up to its next unconditional transfer or LOC;
+    //  - removing a word moves everything after it in its LOC segment down by one.
+    //    Symbolic references follow (pass 1 is re-run), so a removal is only skipped if
+    //    it would move an address that is referenced numerically anywhere in the program,
+    //    move one end of a label+n / label-n reference but not the other, or move a word at
+    //    or after the numeric base of an indexed / indirect operand (base+X may reach any
+    //    of them) in the operand's segment or in the segment holding the base.
+    // Removed lines keep their label (it binds to the next word). Pass 1 is re-run, so
+    // symtab holds the new label addresses on return. Candidates that were kept for
+    // safety are added to skipped with the reason.
+    static List<String> optimize(List<ParsedLine> parsed, Map<String, Integer> symtab, List<String> skipped) {
+        List<String> report = new ArrayList<>();
+
+        Set<Integer> protectedIdx = dataReachable(parsed);
+        Set<Integer> pinned = numericReferences(parsed, symtab);
+        List<OffsetRef> offsets = offsetReferences(parsed, symtab);
+
+        // LOC segment of each line, its first word address (by segment) and last word address
+        int n = parsed.size();
+        int[] segment = new int[n];
+        int[] segStart = new int[n + 1];
+        int[] segEnd = new int[n];
+        Arrays.fill(segStart, -1);
+        int seg = 0;
+        for (int k = 0; k < n; k++) {
+            ParsedLine pl = parsed.get(k);
+            if (pl.op != null && pl.op.equals("LOC")) seg++;
+            else if (pl.generatesWord && pl.op != null && segStart[seg] < 0) segStart[seg] = pl.location;
+            segment[k] = seg;
+        }
+        int end = -1;
+        for (int k = n - 1; k >= 0; k--) {
+            ParsedLine pl = parsed.get(k);
+            if (pl.op != null && pl.op.equals("LOC")) {
+                end = -1;
+                continue;
             }
+            if (pl.generatesWord && pl.op != null && end < 0) end = pl.location + wordCount(pl) - 1;
+            segEnd[k] = end;
+        }
+        List<IndexBase> bases = indexBases(parsed, symtab, segment);
 
-            // ---- AIR/SIR: r,immed (IX/I ignored) ----
-            case "AIR":
-            case "SIR": {
-                requireOperands(pl, 2);
-                int r = parseReg(pl.operands.get(0), pl.lineNo);
-                int imm = parseDecimal(pl.operands.get(1), pl.lineNo);
-                if (imm < 0 || imm > 31) throw new IllegalArgumentException(pl.op + " immed must be 0..31 at line " + pl.lineNo);
-                return packLS(op6, r, 0, 0, imm);
-            }
-
-            // ---- Reg-to-reg: rx,ry (NOT: rx) ----
-            case "MLT":
-            case "DVD":
-            case "TRR":
-            case "AND":
-            case "ORR": {
-                requireOperands(pl, 2);
-                int rx = parseReg(pl.operands.get(0), pl.lineNo);
-                int ry = parseReg(pl.operands.get(1), pl.lineNo);
-                return packRR(op6, rx, ry);
+        // regAddr[r] = a  means  c(Rr) == c(a) at this point of the block (-1: unknown)
+        int[] regAddr = { -1, -1, -1, -1 };
+
+        for (int k = 0; k < n; k++) {
+            ParsedLine pl = parsed.get(k);
+            boolean notCode = pl.op == null || !pl.generatesWord || isDataLike(pl.op);
+            if (pl.label != null || notCode || pl.op.equals("LOC")) {
+                Arrays.fill(regAddr, -1);
+                if (notCode) continue;
             }
-            case "NOT": {
-                requireOperands(pl, 1);
-                int rx = parseReg(pl.operands.get(0), pl.lineNo);
-                return packRR(op6, rx, 0);
-            }
-
-            // ---- Shift/Rotate: r,count,L/R,A/L ----
-            // Accept forms:
-            //   SRC r,count,LR,AL   (LR:0 right,1 left; AL:0 arith,1 logical)
-            //   RRC r,count,LR,AL   (AL should be 1 logically, but we still encode)
-            case "SRC":
-            case "RRC": {
-                requireOperands(pl, 4);
-                int r = parseReg(pl.operands.get(0), pl.lineNo);
-                int count = parseDecimal(pl.operands.get(1), pl.lineNo);
-                int lr = parse01(pl.operands.get(2), pl.lineNo);
-                int al = parse01(pl.operands.get(3), pl.lineNo);
-                if (count < 0 || count > 15) throw new IllegalArgumentException(pl.op + " count must be 0..15 at line " + pl.lineNo);
-                return packShiftRotate(op6, r, al, lr, count);
-            }
-
-            // ---- I/O: r,devid ----
-            case "IN":
-            case "OUT":
-            case "CHK": {
-                requireOperands(pl, 2);
-                int r = parseReg(pl.operands.get(0), pl.lineNo);
-                int devid = parseDecimal(pl.operands.get(1), pl.lineNo);
-                if (devid < 0 || devid > 31) throw new IllegalArgumentException(pl.op + " devid must be 0..31 at line " + pl.lineNo);
-                return packIO(op6, r, devid);
+
+            String op = pl.op;
+            int w;
+            try {
+                w = encodeInstruction(pl, symtab);
+            } catch (IllegalArgumentException e) {
+                Arrays.fill(regAddr, -1); // e.g. an address relaxation will rewrite later
+                continue;
+            }
+            int r = (w >>> 8) & 0x3, ix = (w >>> 6) & 0x3, i = (w >>> 5) & 0x1, addr = w & 0x1F;
+            boolean direct = (ix == 0 && i == 0);
+
+            String why = null;
+            if ((op.equals("AIR") || op.equals("SIR")) && addr == 0) {
+                why = op + " with immediate 0";
+            } else if ((op.equals("JZ") || op.equals("JNE") || op.equals("JCC") || op.equals("JGE"))
+                    && direct && addr == pl.location + 1) {
+                why = "jump to next instruction";
+            } else if (op.equals("LDR") && direct && regAddr[r] == addr && pl.label == null) {
+                why = "R" + r + " already holds c(" + addr + ")";
             }
 
-            // ---- Vector / CNVRT (optional) ----
-            // We'll treat VADD/VSUB/CNVRT same as LS format: r,x,address[,I]
-            case "VADD":
-            case "VSUB":
-            case "CNVRT": {
-                ParsedLS ls = parseLS(pl, symtab, 3, true);
-                return packLS(op6, ls.r, ls.ix, ls.i, ls.addr5);
+            if (why != null) {
+                String kept = protectedIdx.contains(k) ? "reachable from a Data label reference"
+                        : shiftBlocker(pl.location, segEnd[k], pinned, offsets);
+                if (kept == null) kept = indexBlocker(segment[k], segStart[segment[k]], segEnd[k], bases);
+                if (kept == null) {
+                    parsed.set(k, pl.withoutOp());
+                    report.add("line " + pl.lineNo + ": " + pl.codePart + "  (" + why + ")");
+                    continue;
+                }
+                skipped.add("line " + pl.lineNo + ": " + pl.codePart + "  (" + why + "; kept: " + kept + ")");
             }
 
-            default:
-                throw new IllegalArgumentException("Opcode recognized but encoder not implemented: " + pl.op + " at line " + pl.lineNo);
+            // Update facts
+            switch (op) {
+                case "LDR":
+                    regAddr[r] = direct ? addr : -1;
+                    break;
+                case "STR":
+                    if (direct) {
+                        for (int q = 0; q < 4; q++) if (regAddr[q] == addr) regAddr[q] = -1;
+                        regAddr[r] = addr;
+                    } else {
+                        Arrays.fill(regAddr, -1);
+                    }
+                    break;
+                case "STX":
+                    if (i == 0) {
+                        for (int q = 0; q < 4; q++) if (regAddr[q] == addr) regAddr[q] = -1;
+                    } else {
+                        Arrays.fill(regAddr, -1);
+                    }
+                    break;
+                case "LDA": case "AMR": case "SMR": case "AIR": case "SIR": case "NOT":
+                case "AND": case "ORR": case "SRC": case "RRC": case "IN": case "CHK": case "CNVRT":
+                    regAddr[r] = -1;
+                    break;
+                case "MLT": case "DVD":
+                    regAddr[r] = -1;
+                    regAddr[(r + 1) & 3] = -1;
+                    break;
+                case "VADD": case "VSUB": case "STFR":
+                    Arrays.fill(regAddr, -1);
+                    break;
+                default:
+                    break;
+            }
+            if (BlockSummary.TRANSFERS.contains(op)) Arrays.fill(regAddr, -1);
+        }
+
+        if (!report.isEmpty()) {
+            symtab.clear();
+            pass1AssignLocations(parsed, symtab);
         }
+        return report;
     }
 
-    // LS format: opcode(6) R(2) IX(2) I(1) Address(5)
-    static int packLS(int op6, int r2, int ix2, int i1, int addr5) {
-        return ((op6 & 0x3F) << 10)
-                | ((r2 & 0x3) << 8)
-                | ((ix2 & 0x3) << 6)
-                | ((i1 & 0x1) << 5)
-                | (addr5 & 0x1F);
+    // Words in [from+1, segEnd] move down by one when the word at 'from' is removed.
+    // Returns why that would break a reference, or null if it is safe.
+    private static String shiftBlocker(int from, int segEnd, Set<Integer> pinned, List<OffsetRef> offsets) {
+        for (int a = from; a <= segEnd; a++) {
+            if (pinned.contains(a)) return "would move " + fmt6(a) + ", referenced by absolute address";
+        }
+        for (OffsetRef r : offsets) {
+            boolean labelMoves = r.label > from && r.label <= segEnd;
+            boolean targetMoves = r.target > from && r.target <= segEnd;
+            if (labelMoves != targetMoves || r.target == from) {
+                return "would change the distance in '" + r.text + "' at line " + r.lineNo;
+            }
+        }
+        return null;
     }
 
-    // RR format: opcode(6) Rx(2) Ry(2) zeros(6)
-    static int packRR(int op6, int rx2, int ry2) {
-        return ((op6 & 0x3F) << 10)
-                | ((rx2 & 0x3) << 8)
-                | ((ry2 & 0x3) << 6);
+    // A removal shifts every word of the segment after it, so the last word always moves
+    private static String indexBlocker(int segment, int segStart, int segEnd, List<IndexBase> bases) {
+        for (IndexBase b : bases) {
+            if (b.base <= segEnd && (b.segment == segment || b.base >= segStart)) {
+                return "would move words at or after " + fmt6(b.base) + ", reached through '" + b.text + "' at line " + b.lineNo;
+            }
+        }
+        return null;
     }
 
-    // Shift/Rotate:
-    // opcode(6) R(2) A/L(1) L/R(1) Count(4) zeros(2)
-    static int packShiftRotate(int op6, int r2, int al1, int lr1, int count4) {
-        return ((op6 & 0x3F) << 10)
-                | ((r2 & 0x3) << 8)
-                | ((al1 & 0x1) << 7)
-                | ((lr1 & 0x1) << 6)
-                | ((count4 & 0xF) << 2);
+    // Numeric address of an indexed or indirect operand: it reaches base+X or c(base), so the
+    // word it reads is not known before run time
+    static class IndexBase {
+        final int base, segment, lineNo;
+        final String text;
+        IndexBase(int base, int segment, int lineNo, String text) {
+            this.base = base;
+            this.segment = segment;
+            this.lineNo = lineNo;
+            this.text = text;
+        }
     }
 
-    // IO:
-    // opcode(6) R(2) zeros(3) devid(5)
-    static int packIO(int op6, int r2, int devid5) {
-        return ((op6 & 0x3F) << 10)
-                | ((r2 & 0x3) << 8)
-                | (devid5 & 0x1F);
+    private static List<IndexBase> indexBases(List<ParsedLine> parsed, Map<String, Integer> symtab, int[] segment) {
+        Set<String> constants = equConstants(parsed);
+        List<IndexBase> out = new ArrayList<>();
+        for (int k = 0; k < parsed.size(); k++) {
+            ParsedLine pl = parsed.get(k);
+            int at = addrOperandIndex(pl);
+            if (at < 0) continue;
+            // LS: r,x,address[,I]; JMA / JSR: x,address[,I]; LDX / STX never index
+            int x = (at == 2) ? 1 : (pl.op.equals("JMA") || pl.op.equals("JSR")) ? 0 : -1;
+            boolean indexed = x >= 0 && !Integer.valueOf(0).equals(resolve(pl.operands.get(x), symtab));
+            boolean indirect = pl.operands.size() > at + 1 && !Integer.valueOf(0).equals(resolve(pl.operands.get(at + 1), symtab));
+            if (!indexed && !indirect) continue;
+            Integer base = constantValue(pl.operands.get(at), constants, symtab);
+            if (base != null) out.add(new IndexBase(base, segment[k], pl.lineNo, pl.op + " " + String.join(",", pl.operands)));
+        }
+        return out;
     }
 
-    // ========== Helpers for parsing operands ==========
-    static class ParsedLS {
-        int r, ix, i, addr5;
-        ParsedLS(int r, int ix, int i, int addr5) { this.r=r; this.ix=ix; this.i=i; this.addr5=addr5; }
+    private static Set<String> equConstants(List<ParsedLine> parsed) {
+        Set<String> constants = new HashSet<>();
+        for (ParsedLine pl : parsed) {
+            if ("EQU".equals(pl.op) && pl.label != null) constants.add(pl.label);
+        }
+        return constants;
     }
-    static class ParsedLS2 {
-        int x, i, addr5;
-        ParsedLS2(int x, int i, int addr5) { this.x=x; this.i=i; this.addr5=addr5; }
+
+    // label+n / label-n in an address operand or Data word: the distance n is fixed
+    static class OffsetRef {
+        final int label, target, lineNo;
+        final String text;
+        OffsetRef(int label, int target, int lineNo, String text) {
+            this.label = label;
+            this.target = target;
+            this.lineNo = lineNo;
+            this.text = text;
+        }
     }
 
-    // Parse r,x,address[,I] or cc,x,address[,I]
-    static ParsedLS parseLS(ParsedLine pl, Map<String, Integer> symtab, int minOps, boolean allowIndirect) {
-        if (pl.operands.size() < minOps || pl.operands.size() > (allowIndirect ? minOps + 1 : minOps)) {
-            throw new IllegalArgumentException(pl.op + " expects " + minOps + (allowIndirect ? " or "+(minOps+1) : "")
-                    + " operands at line " + pl.lineNo);
+    // Expressions over exactly one label (plus numbers and EQU constants) that do not
+    // evaluate to the label itself
+    private static List<OffsetRef> offsetReferences(List<ParsedLine> parsed, Map<String, Integer> symtab) {
+        Set<String> constants = equConstants(parsed);
+        List<OffsetRef> out = new ArrayList<>();
+        for (ParsedLine pl : parsed) {
+            if (pl.op == null || !pl.generatesWord) continue;
+            List<String> refs;
+            if (isDataLike(pl.op)) {
+                refs = valueOperands(pl);
+            } else {
+                int at = addrOperandIndex(pl);
+                refs = (at >= 0) ? List.of(pl.operands.get(at)) : List.of();
+            }
+            for (String v : refs) {
+                Expr e = isNumber(v) ? null : compileOrNull(v);
+                if (e == null) continue;
+                List<String> labels = new ArrayList<>();
+                for (String name : e.symbols()) if (!constants.contains(name)) labels.add(name);
+                if (labels.size() != 1) continue;
+                Integer label = symtab.get(labels.get(0));
+                Integer target = resolve(v, symtab);
+                if (label != null && target != null && (target & 0xFFFF) != label) {
+                    out.add(new OffsetRef(label, target & 0xFFFF, pl.lineNo, v));
+                }
+            }
         }
-        int r = parseRegOrCC(pl.operands.get(0), pl.lineNo, pl.op);
-        int ix = parseIX(pl.operands.get(1), pl.lineNo);
-        int addr5 = parseAddr5(pl.operands.get(2), symtab, pl.lineNo);
+        return out;
+    }
 
-        int i = 0;
-        if (pl.operands.size() == minOps + 1) {
-            i = parseIndirectFlag(pl.operands.get(3), pl.lineNo);
+    // Line indexes reachable from labels whose address is taken by a Data word
+    private static Set<Integer> dataReachable(List<ParsedLine> parsed) {
+        Set<String> taken = new HashSet<>();
+        for (ParsedLine pl : parsed) {
+            for (String v : valueOperands(pl)) {
+                if (!isNumber(v)) taken.addAll(expr(v, pl.lineNo).symbols());
+            }
         }
-        return new ParsedLS(r, ix, i, addr5);
+        Set<Integer> out = new HashSet<>();
+        boolean reach = false;
+        for (int k = 0; k < parsed.size(); k++) {
+            ParsedLine pl = parsed.get(k);
+            if (pl.op != null && pl.op.equals("LOC")) reach = false;
+            if (pl.label != null && taken.contains(pl.label)) reach = true;
+            if (reach) out.add(k);
+            if (pl.op != null && (pl.op.equals("JMA") || pl.op.equals("RFS") || pl.op.equals("HLT"))) reach = false;
+        }
+        return out;
     }
 
-    // Parse x,address[,I] where x=1..3 stored in IX field
-    static ParsedLS2 parseXAddr(ParsedLine pl, Map<String, Integer> symtab, int minOps, boolean allowIndirect) {
-        if (pl.operands.size() < minOps || pl.operands.size() > (allowIndirect ? minOps + 1 : minOps)) {
-            throw new IllegalArgumentException(pl.op + " expects " + minOps + (allowIndirect ? " or "+(minOps+1) : "")
-                    + " operands at line " + pl.lineNo);
+    // Addresses written as numbers (or expressions over numbers and EQU constants) in
+    // address operands or Data words
+    private static Set<Integer> numericReferences(List<ParsedLine> parsed, Map<String, Integer> symtab) {
+        Set<String> constants = equConstants(parsed);
+        Set<Integer> out = new HashSet<>();
+        for (ParsedLine pl : parsed) {
+            if (pl.op == null || !pl.generatesWord) continue;
+            if (isDataLike(pl.op)) {
+                for (String v : valueOperands(pl)) {
+                    Integer a = constantValue(v, constants, symtab);
+                    if (a != null) out.add(a & 0xFFFF);
+                }
+                continue;
+            }
+            int at = addrOperandIndex(pl);
+            Integer a = (at >= 0) ? constantValue(pl.operands.get(at), constants, symtab) : null;
+            if (a != null) out.add(a);
         }
-        int x = parseIX(pl.operands.get(0), pl.lineNo);
-        if (x == 0) throw new IllegalArgumentException(pl.op + " x must be 1..3 at line " + pl.lineNo);
+        return out;
+    }
+
+    private static Integer constantValue(String s, Set<String> constants, Map<String, Integer> symtab) {
+        if (isNumber(s)) return parseDecimal(s, 0);
+        Expr e = compileOrNull(s);
+        return (e != null && constants.containsAll(e.symbols())) ? resolve(s, symtab) : null;
+    }
+
+    // ========== Literal Pools ==========
+    // "=value" in an address operand names a constant word. Each distinct value is stored once
+    // under the symbol "=<value>", so pass 1 resolves it like any label. Constant expressions
+    // are folded first (=4*8 and =32 share a word); expressions using symbols are keyed by
+    // their text and evaluated in pass 2 like a Data operand.
+    //  - LTORG emits every literal referenced since the previous LTORG that has no word yet;
+    //  - literals left over at the end go to free low memory (6..31); it is an error if
+    //    low memory is full.
+    // Literals are read-only constants: stores and transfers may not name one (a store would
+    // overwrite a word other lines share, a jump would run into the pool).
+    static final Set<String> NO_LITERAL = Set.of(
+            "STR", "STX", "STFR", "JZ", "JNE", "JCC", "JMA", "JSR", "SOB", "JGE");
+
+    static class LiteralPool {
+        final String where;
+        final List<ParsedLine> words = new ArrayList<>();
+        LiteralPool(String where) { this.where = where; }
+    }
 
-        int addr5 = parseAddr5(pl.operands.get(1), symtab, pl.lineNo);
+    // Rewrites literal operands to their canonical symbol and expands LTORG pools in place.
+    // The last pool returned holds the leftover literals for placeLowLiterals.
+    static List<LiteralPool> collectLiterals(List<ParsedLine> parsed) {
+        return collectLiterals(parsed, null);
+    }
+
+    // diags != null (--check): a bad literal is reported and replaced by 0
+    static List<LiteralPool> collectLiterals(List<ParsedLine> parsed, List<Diagnostic> diags) {
+        List<LiteralPool> pools = new ArrayList<>();
+        Set<String> placed = new HashSet<>();
+        LinkedHashMap<String, ParsedLine> pending = new LinkedHashMap<>();
+        List<ParsedLine> out = new ArrayList<>(parsed.size());
 
-        int i = 0;
-        if (pl.operands.size() == minOps + 1) {
-            i = parseIndirectFlag(pl.operands.get(2), pl.lineNo);
+        for (ParsedLine pl : parsed) {
+            int at = addrOperandIndex(pl);
+            try {
+                if (at >= 0 && pl.operands.get(at).startsWith("=")) pl = literalOperand(pl, at, placed, pending);
+                if ("LTORG".equals(pl.op) && !pl.operands.isEmpty()) {
+                    throw new IllegalArgumentException("LTORG expects 0 operands at line " + pl.lineNo);
+                }
+            } catch (IllegalArgumentException e) {
+                if (diags == null) throw e;
+                diags.add(Diagnostic.of(pl, e));
+                List<String> ops = new ArrayList<>(pl.operands);
+                if (at >= 0) ops.set(at, "0"); else ops.clear();
+                pl = pl.withOperands(ops);
+            }
+            out.add(pl);
+
+            if ("LTORG".equals(pl.op)) {
+                LiteralPool pool = new LiteralPool("LTORG line " + pl.lineNo);
+                pool.words.addAll(pending.values());
+                pools.add(pool);
+                out.addAll(pool.words);
+                placed.addAll(pending.keySet());
+                pending.clear();
+            }
         }
-        return new ParsedLS2(x, i, addr5);
+
+        LiteralPool rest = new LiteralPool("low memory");
+        rest.words.addAll(pending.values());
+        pools.add(rest);
+
+        parsed.clear();
+        parsed.addAll(out);
+        return pools;
     }
 
-    static int parseReg(String s, int lineNo) {
-        int r = parseDecimal(s, lineNo);
-        if (r < 0 || r > 3) throw new IllegalArgumentException("Register must be 0..3 at line " + lineNo);
-        return r;
+    // Queues the literal in operand 'at' (unless already placed) and rewrites it to its key
+    private static ParsedLine literalOperand(ParsedLine pl, int at, Set<String> placed, Map<String, ParsedLine> pending) {
+        String lit = pl.operands.get(at);
+        if (NO_LITERAL.contains(pl.op)) {
+            throw new IllegalArgumentException(pl.op + " cannot use literal '" + lit
+                    + "' (literals are read-only constants for loads and arithmetic) at line " + pl.lineNo);
+        }
+        String body = lit.substring(1).trim();
+        if (body.isEmpty() || body.startsWith("=")) {
+            throw new IllegalArgumentException("Literal must be =<expression> but got '" + lit + "' at line " + pl.lineNo);
+        }
+        Expr e = expr(body, pl.lineNo);
+        String value = e.symbols().isEmpty()
+                ? Integer.toString(e.eval(Map.of(), pl.lineNo) & 0xFFFF) : body.replaceAll("\\s+", "");
+        String key = "=" + value;
+        if (!placed.contains(key) && !pending.containsKey(key)) {
+            pending.put(key, new ParsedLine(pl.lineNo, String.format("%-10s%-8s%-12s;literal", key + ":", "Data", value),
+                    key + ": Data " + value, key, "DATA", List.of(value), true));
+            pending.get(key).synthetic = true;
+        }
+        if (key.equals(lit)) return pl;
+        List<String> ops = new ArrayList<>(pl.operands);
+        ops.set(at, key);
+        return pl.withOperands(ops);
     }
 
-    static int parseRegOrCC(String s, int lineNo, String op) {
-        // For JCC, the first operand is cc (0..3). For others it's reg.
-        int v = parseDecimal(s, lineNo);
-        if (v < 0 || v > 3) throw new IllegalArgumentException(op + " first operand must be 0..3 at line " + lineNo);
-        return v;
+    // Places the leftover pool after pass 1 (needs locations) and re-runs pass 1
+    static void placeLowLiterals(List<ParsedLine> parsed, Map<String, Integer> symtab, LiteralPool rest) {
+        if (rest.words.isEmpty()) return;
+        Set<Integer> occupied = occupiedWords(parsed);
+        Set<Integer> pinned = numericReferences(parsed, symtab);
+        TreeMap<Integer, ParsedLine> low = new TreeMap<>();
+        for (ParsedLine w : rest.words) {
+            int free = freeLowWord(occupied, pinned);
+            if (free < 0) {
+                throw new IllegalArgumentException("Literal pool: no free word left in " + FIRST_FREE + "..31 for "
+                        + w.label + " at line " + w.lineNo + " (free some low memory, or load the constant from a Data word)");
+            }
+            occupied.add(free);
+            low.put(free, w);
+        }
+        parsed.addAll(lowMemoryBlock(low, "literal pool"));
+        symtab.clear();
+        pass1AssignLocations(parsed, symtab);
     }
 
-    static int parseIX(String s, int lineNo) {
-        int ix = parseDecimal(s, lineNo);
-        if (ix < 0 || ix > 3) throw new IllegalArgumentException("IX must be 0..3 at line " + lineNo);
-        return ix;
+    static List<String> literalPoolNotes(List<LiteralPool> pools) {
+        List<String> notes = new ArrayList<>();
+        int total = 0;
+        for (LiteralPool p : pools) {
+            if (p.words.isEmpty()) continue;
+            int lo = Integer.MAX_VALUE, hi = -1;
+            for (ParsedLine w : p.words) {
+                lo = Math.min(lo, w.location);
+                hi = Math.max(hi, w.location);
+            }
+            notes.add(String.format("Literal pool (%s): %d word(s) at %s..%s", p.where, p.words.size(), fmt6(lo), fmt6(hi)));
+            total += p.words.size();
+        }
+        if (total > 0) notes.add("Literal pools total: " + total + " word(s)");
+        return notes;
     }
 
-    static int parseAddr5(String s, Map<String, Integer> symtab, int lineNo) {
-        int v;
-        if (isNumber(s)) {
-            v = parseDecimal(s, lineNo);
-        } else {
-            Integer a = symtab.get(s);
-            if (a == null) throw new IllegalArgumentException("Unknown label '" + s + "' at line " + lineNo);
-            v = a;
+    // One LOC per contiguous run of pre-placed words (address -> Data line)
+    static List<ParsedLine> lowMemoryBlock(TreeMap<Integer, ParsedLine> words, String comment) {
+        List<ParsedLine> out = new ArrayList<>();
+        int expect = -1;
+        for (Map.Entry<Integer, ParsedLine> e : words.entrySet()) {
+            int a = e.getKey();
+            if (a != expect) out.add(syntheticLoc(e.getValue().lineNo, a, comment));
+            out.add(e.getValue());
+            expect = a + 1;
         }
-        if (v < 0 || v > 31) {
-            throw new IllegalArgumentException("Address field must be 0..31 (5 bits) at line " + lineNo
-                    + " but got " + v + ". Use indexing + base address scheme if you need full memory.");
+        return out;
+    }
+
+    static ParsedLine syntheticLoc(int lineNo, int addr, String comment) {
+        ParsedLine loc = new ParsedLine(lineNo, String.format("%-10s%-8s%-12s;%s", "", "LOC", addr, comment),
+                "LOC " + addr, null, "LOC", List.of(Integer.toString(addr)), false);
+        loc.synthetic = true;
+        return loc;
+    }
+
+    static Set<Integer> occupiedWords(List<ParsedLine> parsed) {
+        Set<Integer> occupied = new HashSet<>();
+        for (ParsedLine pl : parsed) {
+            if (pl.op == null || !pl.generatesWord) continue;
+            for (int k = wordCount(pl) - 1; k >= 0; k--) occupied.add(pl.location + k);
         }
-        return v;
+        return occupied;
     }
 
-    static int parseIndirectFlag(String s, int lineNo) {
-        // Accept "1" or "I" (case-insensitive)
-        if (s.equalsIgnoreCase("I")) return 1;
-        int v = parseDecimal(s, lineNo);
-        if (v != 0 && v != 1) throw new IllegalArgumentException("Indirect flag must be 0/1 or I at line " + lineNo);
-        return v;
+    // ========== Low-Memory Layout (--layout, after the optimizer, before relaxation) ==========
+    // Only addresses 0..31 fit the 5-bit address field. A direct operand above 31 is relaxed to
+    // a pointer (one more memory read) or an IXR base (one index add) on every execution, so the
+    // layout pass moves the hottest far targets into free low words (6..31) first:
+    //  - scalar Data words: labelled, used only as direct unindexed address operands, and not in
+    //    a run of data words holding block data or a label whose address is taken (arrays, tables);
+    //  - code blocks: from a label nothing falls into (JMA/RFS/HLT or Data before it in its
+    //    segment) to the next JMA/RFS/HLT, instructions only.
+    // Heat is the executions of each referencing line: a Simulator6461 --profile of the previous
+    // build, matched to source lines through that build's source map, or else 10^loop depth
+    // (backward branches, depth capped at LOOP_DEPTH). Candidates go in by saved cycles per word
+    // while enough free low words remain for the pointers the other far operands need.
+    // A moved item is wrapped in LOC lines where it stands, so it keeps its place in the listing
+    // and leaves a hole at its old address; no other address changes. Pass 1 is re-run.
+    static final int LOOP_DEPTH = 4;
+    static final Set<String> FLOW_ENDS = Set.of("JMA", "RFS", "HLT");
+
+    static class Layout {
+        final Map<Integer, Long> heat; // source line -> executions
+        final String weighting;
+        final CostTable costs;
+        final List<String> moves = new ArrayList<>();
+        Map<Integer, Long> before;     // source line -> weighted cycles without the layout
+
+        Layout(Map<Integer, Long> heat, String weighting, CostTable costs) {
+            this.heat = heat;
+            this.weighting = weighting;
+            this.costs = costs;
+        }
+
+        // Per-block estimate against the baseline, for the final (relaxed) program
+        List<String> savings(List<ParsedLine> parsed, Map<String, Integer> symtab) {
+            Map<Integer, Long> after = lineCycles(parsed, symtab, heat, costs);
+            BlockSummary blocks = new BlockSummary();
+            Map<BlockSummary.Block, long[]> rows = new LinkedHashMap<>();
+            Set<Integer> seen = new HashSet<>(); // macro expansions share a line number
+            for (ParsedLine pl : parsed) {
+                if ("LOC".equals(pl.op)) {
+                    blocks.end();
+                    if (pl.label != null) blocks.label(pl.label, pl.location);
+                    continue;
+                }
+                if (pl.label != null && !"EQU".equals(pl.op)) blocks.label(pl.label, symtab.get(pl.label));
+                if (pl.op == null || !pl.generatesWord) continue;
+                if (isDataLike(pl.op)) {
+                    blocks.end();
+                    continue;
+                }
+                blocks.add(pl.location, pl.op, 0, 0);
+                if (!seen.add(pl.lineNo) || !before.containsKey(pl.lineNo) || !after.containsKey(pl.lineNo)) continue;
+                long[] r = rows.computeIfAbsent(blocks.blocks.get(blocks.blocks.size() - 1), b -> new long[2]);
+                r[0] += before.getOrDefault(pl.lineNo, 0L);
+                r[1] += after.getOrDefault(pl.lineNo, 0L);
+            }
+
+            List<String> out = new ArrayList<>();
+            out.add("Layout estimate (executions x cycles, " + weighting + "):");
+            out.add(String.format("%-20s %10s %10s %10s", "Block", "Before", "After", "Saved"));
+            long[] total = new long[2];
+            for (Map.Entry<BlockSummary.Block, long[]> e : rows.entrySet()) {
+                long[] r = e.getValue();
+                total[0] += r[0];
+                total[1] += r[1];
+                if (r[0] != r[1]) out.add(String.format("%-20s %10d %10d %10d", e.getKey().name, r[0], r[1], r[0] - r[1]));
+            }
+            out.add(String.format("%-20s %10d %10d %10d", "Total", total[0], total[1], total[0] - total[1]));
+            return out;
+        }
     }
 
-    static int parse01(String s, int lineNo) {
-        int v = parseDecimal(s, lineNo);
-        if (v != 0 && v != 1) throw new IllegalArgumentException("Expected 0 or 1 at line " + lineNo);
-        return v;
+    // A Data word or code block that can move: line indexes from..to (labels included)
+    private static class LayoutItem {
+        final int from, to, words;
+        final boolean code;
+        final List<String> labels = new ArrayList<>();
+        final Set<Integer> targets = new HashSet<>();
+        long saving;
+        int refs, at = -1;
+
+        LayoutItem(int from, int to, int words, boolean code) {
+            this.from = from;
+            this.to = to;
+            this.words = words;
+            this.code = code;
+        }
     }
 
-    static void requireOperands(ParsedLine pl, int n) {
-        if (pl.operands.size() != n) {
-            throw new IllegalArgumentException(pl.op + " expects " + n + " operands at line " + pl.lineNo);
+    static CostTable layoutCosts(Options opt) {
+        return (opt.costs != null) ? opt.costs : CostTable.defaults();
+    }
+
+    static Layout layout(List<ParsedLine> parsed, Map<String, Integer> symtab, Map<Integer, Long> heat,
+                         String weighting, CostTable ct, boolean relax) {
+        Layout lay = new Layout(heat, weighting, ct);
+
+        // Baseline: the same program relaxed without the layout
+        List<ParsedLine> base = new ArrayList<>();
+        for (ParsedLine pl : parsed) base.add(pl.withLine(pl.lineNo, pl.origin));
+        Map<String, Integer> baseSyms = new HashMap<>();
+        pass1AssignLocations(base, baseSyms);
+        if (relax) relaxAddresses(base, baseSyms);
+        lay.before = lineCycles(base, baseSyms, heat, ct);
+
+        // Label uses: relaxable address operands are references, anything else takes the address
+        Map<String, List<ParsedLine>> refs = new HashMap<>();
+        Set<String> taken = new HashSet<>();
+        Set<Integer> need = new HashSet<>(); // far targets the relaxation would need a pointer for
+        for (ParsedLine pl : parsed) {
+            if (pl.op == null) continue;
+            int at = addrOperandIndex(pl);
+            for (int q = 0; q < pl.operands.size(); q++) {
+                String s = pl.operands.get(q);
+                if (q == at && relaxable(pl, at, symtab)) {
+                    Integer t = resolve(s, symtab);
+                    if (t != null && t > 31) need.add(t);
+                    if (symtab.containsKey(s)) {
+                        refs.computeIfAbsent(s, k -> new ArrayList<>()).add(pl);
+                        continue;
+                    }
+                }
+                Expr e = isNumber(s) ? null : compileOrNull(s);
+                if (e != null) taken.addAll(e.symbols());
+            }
+        }
+        for (ParsedLine pl : parsed) {
+            if ("DATA".equals(pl.op) && pl.label != null && pl.location >= 0 && pl.location <= 31) {
+                need.remove(resolve(pl.operands.get(0), symtab)); // an existing low pointer is reused
+            }
+        }
+
+        List<LayoutItem> items = layoutItems(parsed, symtab, taken);
+        Set<Integer> occupied = occupiedWords(parsed);
+        Set<Integer> pinned = numericReferences(parsed, symtab);
+        for (LayoutItem it : items) {
+            for (String l : it.labels) {
+                it.targets.add(symtab.get(l));
+                for (ParsedLine r : refs.getOrDefault(l, List.of())) {
+                    it.refs++;
+                    it.saving += heat.getOrDefault(r.lineNo, 0L) * ct.mem;
+                }
+            }
+            for (int a = parsed.get(it.to).location; a > parsed.get(it.to).location - it.words; a--) {
+                if (pinned.contains(a)) it.saving = 0;
+            }
+        }
+        items.removeIf(it -> it.saving == 0);
+        items.sort((a, b) -> Double.compare((double) b.saving / b.words, (double) a.saving / a.words));
+
+        // Greedy: a move must leave room for the remaining pointers, or need no more room than them
+        List<LayoutItem> chosen = new ArrayList<>();
+        for (LayoutItem it : items) {
+            Set<Integer> rest = new HashSet<>(need);
+            rest.removeAll(it.targets);
+            int free = 0;
+            for (int a = FIRST_FREE; a <= 31; a++) if (!occupied.contains(a) && !pinned.contains(a)) free++;
+            if (it.words + rest.size() > free && it.words > need.size() - rest.size()) continue;
+            it.at = it.code ? freeLowRun(occupied, pinned, it.words) : freeLowWord(occupied, pinned);
+            if (it.at < 0) continue;
+            for (int a = it.at; a < it.at + it.words; a++) occupied.add(a);
+            need = rest;
+            chosen.add(it);
+        }
+
+        chosen.sort((a, b) -> Integer.compare(a.from, b.from));
+        for (LayoutItem it : chosen) {
+            lay.moves.add("line " + parsed.get(it.from).lineNo + ": " + it.labels.get(0) + " -> " + fmt6(it.at)
+                    + (it.words > 1 ? ".." + fmt6(it.at + it.words - 1) : "")
+                    + "  (" + (it.code ? "code block, " + it.words + " words" : "data word") + ", "
+                    + it.refs + " reference(s))");
+        }
+
+        // Wrap from the last item back, so the earlier indexes stay valid
+        for (int c = chosen.size() - 1; c >= 0; c--) {
+            LayoutItem it = chosen.get(c);
+            ParsedLine first = parsed.get(it.from), last = parsed.get(it.to);
+            if (segmentContinues(parsed, it.to)) {
+                parsed.add(it.to + 1, syntheticLoc(last.lineNo, last.location + 1, "layout: resume"));
+            }
+            parsed.add(it.from, syntheticLoc(first.lineNo, it.at, "layout"));
+        }
+        if (!chosen.isEmpty()) {
+            symtab.clear();
+            pass1AssignLocations(parsed, symtab);
+        }
+        return lay;
+    }
+
+    // Movable Data words and code blocks (see Low-Memory Layout)
+    private static List<LayoutItem> layoutItems(List<ParsedLine> parsed, Map<String, Integer> symtab, Set<String> taken) {
+        List<LayoutItem> items = new ArrayList<>();
+        int n = parsed.size();
+
+        // In a run of data words, block data or a taken label may start an array or table that
+        // is indexed from its base: the words from there to the end of the run stay put
+        Set<Integer> arrayLines = new HashSet<>();
+        boolean array = false;
+        for (int k = 0; k < n; k++) {
+            ParsedLine pl = parsed.get(k);
+            if (pl.label != null && taken.contains(pl.label)) array = true;
+            if (pl.op == null) continue;
+            if (!pl.generatesWord || !isDataLike(pl.op)) {
+                array = false;
+                continue;
+            }
+            if (isBlockData(pl.op)) array = true;
+            if (array) arrayLines.add(k);
+        }
+
+        int prev = -1; // last word line of the current segment
+        for (int k = 0; k < n; k++) {
+            ParsedLine pl = parsed.get(k);
+            if ("LOC".equals(pl.op)) {
+                prev = -1;
+                continue;
+            }
+            if (pl.op == null || !pl.generatesWord) continue;
+            ParsedLine before = (prev >= 0) ? parsed.get(prev) : null;
+            prev = k;
+            if (pl.synthetic || pl.location <= 31) continue;
+            boolean entered = before != null && !isDataLike(before.op) && !FLOW_ENDS.contains(before.op);
+            int from = labelStart(parsed, k);
+            if (from < 0 || entered) continue;
+
+            LayoutItem it;
+            if ("DATA".equals(pl.op) && pl.operands.size() == 1) {
+                if (arrayLines.contains(k)) continue;
+                it = new LayoutItem(from, k, 1, false);
+            } else if (!isDataLike(pl.op) && before != null) {
+                int to = k, words = 0;
+                for (; to < n; to++) {
+                    ParsedLine q = parsed.get(to);
+                    if (q.op == null) continue;
+                    if (!q.generatesWord || isDataLike(q.op) || q.synthetic) break;
+                    words++;
+                    if (FLOW_ENDS.contains(q.op)) break;
+                }
+                if (to == n || !FLOW_ENDS.contains(parsed.get(to).op) || words > 32 - FIRST_FREE) continue;
+                it = new LayoutItem(from, to, words, true);
+            } else {
+                continue;
+            }
+            boolean movable = true;
+            for (int q = it.from; q <= it.to; q++) {
+                String l = parsed.get(q).label;
+                if (l == null) continue;
+                if (!it.code && taken.contains(l)) movable = false;
+                it.labels.add(l);
+            }
+            if (movable) items.add(it);
+        }
+        return items;
+    }
+
+    // First line of the label-only lines right before word line k, or k; -1 if nothing labels it
+    private static int labelStart(List<ParsedLine> parsed, int k) {
+        int from = k;
+        while (from > 0 && parsed.get(from - 1).op == null) from--;
+        while (from < k && parsed.get(from).label == null) from++;
+        return (parsed.get(from).label != null) ? from : -1;
+    }
+
+    // Whether a word follows line k in its LOC segment
+    private static boolean segmentContinues(List<ParsedLine> parsed, int k) {
+        for (int q = k + 1; q < parsed.size(); q++) {
+            ParsedLine pl = parsed.get(q);
+            if ("LOC".equals(pl.op)) return false;
+            if (pl.op != null && pl.generatesWord) return true;
+        }
+        return false;
+    }
+
+    // Lowest free run of n words in FIRST_FREE..31, or -1
+    private static int freeLowRun(Set<Integer> occupied, Set<Integer> pinned, int n) {
+        for (int a = FIRST_FREE, len = 0; a <= 31; a++) {
+            len = (occupied.contains(a) || pinned.contains(a)) ? 0 : len + 1;
+            if (len == n) return a - n + 1;
+        }
+        return -1;
+    }
+
+    // Executions of each line from a profile, through the source map of the profiled build.
+    // Lines with several entries (macro expansions) get their mean.
+    static Map<Integer, Long> profileHeat(List<MapEntry> map, Map<Integer, long[]> profile) {
+        Map<Integer, long[]> sums = new HashMap<>(); // line -> {executions, entries}
+        for (MapEntry e : map) {
+            if (e.words == 0 || e.text != null) continue;
+            long exec = 0;
+            for (int k = 0; k < e.words; k++) {
+                long[] c = profile.get(e.addr + k);
+                if (c != null) exec += c[0];
+            }
+            long[] s = sums.computeIfAbsent(e.lineNo, k -> new long[2]);
+            s[0] += exec;
+            s[1]++;
+        }
+        Map<Integer, Long> heat = new HashMap<>();
+        for (Map.Entry<Integer, long[]> e : sums.entrySet()) heat.put(e.getKey(), e.getValue()[0] / e.getValue()[1]);
+        return heat;
+    }
+
+    // 10^depth per instruction line, where depth counts the backward direct branches
+    // (JZ/JNE/JCC/SOB/JGE to an earlier word of the same segment) whose range holds the line
+    static Map<Integer, Long> loopHeat(List<ParsedLine> parsed, Map<String, Integer> symtab) {
+        int n = parsed.size();
+        int[] depth = new int[n];
+        int segStart = 0;
+        for (int k = 0; k < n; k++) {
+            ParsedLine pl = parsed.get(k);
+            if ("LOC".equals(pl.op)) segStart = k;
+            if (pl.op == null || !Set.of("JZ", "JNE", "JCC", "SOB", "JGE").contains(pl.op)) continue;
+            int at = addrOperandIndex(pl);
+            if (at < 0 || !relaxable(pl, at, symtab)) continue;
+            Integer t = resolve(pl.operands.get(at), symtab);
+            if (t == null || t > pl.location) continue;
+            for (int j = k; j >= segStart; j--) {
+                ParsedLine h = parsed.get(j);
+                if (h.op != null && h.generatesWord && h.location == t) {
+                    for (int q = j; q <= k; q++) depth[q]++;
+                    break;
+                }
+            }
+        }
+        Map<Integer, Long> heat = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            ParsedLine pl = parsed.get(k);
+            if (pl.op == null || !pl.generatesWord || isDataLike(pl.op)) continue;
+            long w = 1;
+            for (int d = Math.min(depth[k], LOOP_DEPTH); d > 0; d--) w *= 10;
+            heat.merge(pl.lineNo, w, Math::max);
+        }
+        return heat;
+    }
+
+    // Heat x estimated cycles per source line; operands still out of range are left out
+    static Map<Integer, Long> lineCycles(List<ParsedLine> parsed, Map<String, Integer> symtab,
+                                         Map<Integer, Long> heat, CostTable ct) {
+        Map<Integer, Long> out = new HashMap<>();
+        for (ParsedLine pl : parsed) {
+            if (pl.op == null || !pl.generatesWord || isDataLike(pl.op)) continue;
+            int word;
+            try {
+                word = encodeInstruction(pl, symtab);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            out.merge(pl.lineNo, heat.getOrDefault(pl.lineNo, 0L) * Estimate.of(pl.op, word, ct).cycles, Long::sum);
+        }
+        return out;
+    }
+
+    // ========== Long-Address Relaxation (after pass 1, before pass 2) ==========
+    // An unindexed, direct address operand above 31 is rewritten to the cheapest legal form:
+    //  1) IXR base:  LDR r,0,Far  ->  LDR r,k,Far-base   when an earlier LDX k in the same basic
+    //                block loads a Data word holding a known base with 0 <= Far-base <= 31
+    //                (LS format only; costs one index add)
+    //  2) pointer:   LDR r,0,Far  ->  LDR r,0,@Far,1     through a pointer word in low memory
+    //                (LS format and LDX/STX; costs one extra memory read)
+    // Pointer words are shared per target address: an existing low Data word holding the
+    // same label is reused, otherwise one pool word is placed in a free address 6..31.
+    // Locations are reassigned after every round until no operand is out of range.
+    static final int RELAX_ROUNDS = 8;
+    static final int FIRST_FREE = 6; // 0..5 are reserved for the machine
+
+    static List<String> relaxAddresses(List<ParsedLine> parsed, Map<String, Integer> symtab) {
+        List<String> report = new ArrayList<>();
+        Map<Integer, String> pointers = new HashMap<>(); // target address -> pointer label
+        TreeMap<Integer, ParsedLine> pool = new TreeMap<>(); // pool address -> pointer word
+        List<ParsedLine> poolLines = new ArrayList<>();
+
+        for (int round = 0; round < RELAX_ROUNDS; round++) {
+            Set<Integer> occupied = occupiedWords(parsed);
+            Set<String> stored = new HashSet<>(); // operands of direct STR/STX (words that change)
+            for (ParsedLine pl : parsed) {
+                if (pl.op == null || !pl.generatesWord) continue;
+                if ((pl.op.equals("STR") || pl.op.equals("STX")) && addrOperandIndex(pl) >= 0) {
+                    stored.add(pl.operands.get(addrOperandIndex(pl)));
+                }
+            }
+            Set<Integer> pinned = numericReferences(parsed, symtab);
+
+            // Existing low Data words holding a label address can serve as pointers
+            for (ParsedLine pl : parsed) {
+                if (!"DATA".equals(pl.op) || pl.label == null || pl.location < 0 || pl.location > 31) continue;
+                String v = pl.operands.get(0);
+                Integer val = isNumber(v) ? null : resolve(v, symtab);
+                if (val == null || stored.contains(pl.label)) continue;
+                pointers.putIfAbsent(val, pl.label);
+            }
+
+            boolean changed = false;
+            for (int k = 0; k < parsed.size(); k++) {
+                ParsedLine pl = parsed.get(k);
+                int at = addrOperandIndex(pl);
+                if (at < 0) continue;
+                String s = pl.operands.get(at);
+                Integer target = resolve(s, symtab);
+                if (target == null || target <= 31) continue;
+
+                if (!relaxable(pl, at, symtab)) continue;
+                boolean ls = FMT.get(pl.op) == Fmt.LS;
+
+                List<String> ops = new ArrayList<>(pl.operands.subList(0, at + 1));
+                String how;
+                int[] base = ls ? knownIndexBase(parsed, k, symtab, stored) : null;
+                int xr = -1;
+                if (base != null) {
+                    for (int x = 1; x <= 3; x++) {
+                        if (base[x] >= 0 && target - base[x] >= 0 && target - base[x] <= 31) { xr = x; break; }
+                    }
+                }
+                if (xr > 0) {
+                    ops.set(1, Integer.toString(xr));
+                    ops.set(at, Integer.toString(target - base[xr]));
+                    how = "X" + xr + " base " + base[xr];
+                } else {
+                    String ptr = pointers.get(target);
+                    if (ptr == null) {
+                        int free = freeLowWord(occupied, pinned);
+                        if (free < 0) continue; // nothing free: pass 2 reports the range error
+                        occupied.add(free);
+                        ptr = "@" + s.replaceAll("\\s+", "");
+                        pointers.put(target, ptr);
+                        pool.put(free, new ParsedLine(pl.lineNo, String.format("%-10s%-8s%-12s;pointer to %s", ptr + ":", "Data", s, s),
+                                ptr + ": Data " + s, ptr, "DATA", List.of(s), true));
+                        pool.get(free).synthetic = true;
+                    }
+                    ops.set(at, ptr);
+                    ops.add("1");
+                    how = "pointer " + ptr;
+                }
+                parsed.set(k, pl.withOperands(ops));
+                report.add("line " + pl.lineNo + ": " + pl.op + " " + String.join(",", pl.operands)
+                        + " -> " + pl.op + " " + String.join(",", ops) + "  (" + how + ")");
+                changed = true;
+            }
+
+            if (!changed) break;
+
+            // Re-emit the pool after the program
+            parsed.removeAll(poolLines);
+            poolLines.clear();
+            poolLines.addAll(lowMemoryBlock(pool, "relaxation pool"));
+            parsed.addAll(poolLines);
+            symtab.clear();
+            pass1AssignLocations(parsed, symtab);
+        }
+        return report;
+    }
+
+    // Operand index of the address field (LS: r,x,ADDR ; XADDR: x,ADDR), or -1
+    static int addrOperandIndex(ParsedLine pl) {
+        if (pl.op == null || !pl.generatesWord) return -1;
+        Fmt f = FMT.get(pl.op);
+        int at = (f == Fmt.LS) ? 2 : (f == Fmt.XADDR) ? 1 : -1;
+        return (at >= 0 && pl.operands.size() > at) ? at : -1;
+    }
+
+    // Only unindexed, direct forms can be relaxed (LS format, LDX / STX)
+    static boolean relaxable(ParsedLine pl, int at, Map<String, Integer> symtab) {
+        boolean ls = FMT.get(pl.op) == Fmt.LS;
+        if (ls && !pl.operands.get(1).equals("0")) return false;
+        if (pl.operands.size() == at + 2 && !Integer.valueOf(0).equals(resolve(pl.operands.get(at + 1), symtab))) return false;
+        return ls || pl.op.equals("LDX") || pl.op.equals("STX");
+    }
+
+    // Known contents of X1..X3 before line k, from LDX of constant Data words in the same block
+    // (none if line k is labelled: a jump to it may arrive with any X)
+    private static int[] knownIndexBase(List<ParsedLine> parsed, int k, Map<String, Integer> symtab, Set<String> stored) {
+        int[] base = { -1, -1, -1, -1 };
+        if (parsed.get(k).label != null) return base;
+        boolean[] seen = new boolean[4];
+        for (int j = k - 1; j >= 0; j--) {
+            ParsedLine pl = parsed.get(j);
+            if (pl.op != null && (pl.op.equals("LOC") || isDataLike(pl.op) || BlockSummary.TRANSFERS.contains(pl.op))) break;
+            if (pl.op != null && pl.op.equals("LDX") && pl.operands.size() == 2) {
+                Integer x = resolve(pl.operands.get(0), symtab); // bad operands are left to pass 2
+                String src = pl.operands.get(1);
+                if (x != null && x > 0 && x <= 3 && !seen[x]) {
+                    seen[x] = true;
+                    Integer addr = resolve(src, symtab);
+                    ParsedLine word = (addr == null || stored.contains(src)) ? null : dataWordAt(parsed, addr);
+                    if (word != null) {
+                        String v = word.operands.get(0);
+                        Integer val = resolve(v, symtab);
+                        if (val != null) val &= 0xFFFF;
+                        if (val != null && (word.label == null || !stored.contains(word.label))) base[x] = val;
+                    }
+                }
+            }
+            if (pl.label != null) break;
+        }
+        return base;
+    }
+
+    private static ParsedLine dataWordAt(List<ParsedLine> parsed, int addr) {
+        ParsedLine found = null;
+        for (ParsedLine pl : parsed) {
+            if (pl.generatesWord && pl.location == addr) found = pl; // last write wins at load time
+        }
+        return (found != null && "DATA".equals(found.op) && found.operands.size() == 1) ? found : null;
+    }
+
+    private static int freeLowWord(Set<Integer> occupied, Set<Integer> pinned) {
+        for (int a = 31; a >= FIRST_FREE; a--) {
+            if (!occupied.contains(a) && !pinned.contains(a)) return a;
+        }
+        return -1;
+    }
+
+    // ========== Pass 2 ==========
+    static void pass2Generate(List<ParsedLine> parsed,
+                              Map<String, Integer> symtab,
+                              Path loadOut, Path listOut) throws IOException {
+        Options opt = new Options();
+        opt.loadOut = loadOut;
+        opt.listOut = listOut;
+        opt.mapOut = null;
+        pass2Generate(parsed, symtab, opt, List.of());
+    }
+
+    // opt.mapOut  != null: also write the source map (one record per listing entry, then notes)
+    // opt.listOut == null: no listing (--load-only); Relister6461 can rebuild it from the map
+    // opt.costs   != null: annotate each listing line with an Estimate and append a block summary
+    // notes: extra summary lines appended to the listing (literal pools, ...)
+    static void pass2Generate(List<ParsedLine> parsed,
+                              Map<String, Integer> symtab,
+                              Options opt, List<String> notes) throws IOException {
+        MemoryMap mem = MemoryMap.of(parsed);
+        if (opt.overlapError) mem.reject();
+        int[] image = new int[MemoryMap.SIZE];
+        BitSet loaded = new BitSet(MemoryMap.SIZE);
+        List<int[]> shadowed = new ArrayList<>(); // {addr, word} of words a later line overwrote
+
+        try (BufferedWriter load = Files.newBufferedWriter(opt.loadOut);
+             BufferedWriter lst = (opt.listOut != null) ? Files.newBufferedWriter(opt.listOut) : null;
+             BufferedWriter map = (opt.mapOut != null) ? Files.newBufferedWriter(opt.mapOut) : null) {
+            Listing listing = (lst != null) ? new Listing(lst, opt.costs) : null;
+
+            for (ParsedLine pl : parsed) {
+                if ("LOC".equals(pl.op)) {
+                    if (listing != null) listing.loc(pl, pl.location);
+                    if (map != null) writeMapEntry(map, pl, pl.location, 0);
+                    continue;
+                }
+
+                if (listing != null && pl.label != null && !"EQU".equals(pl.op)) listing.label(pl.label, symtab.get(pl.label));
+                if (!pl.generatesWord || pl.op == null) continue;
+                int addr = pl.location;
+
+                // Block data: one listing line for the whole range
+                if (isBlockData(pl.op)) {
+                    int[] values = withOrigin(pl, () -> encodeBlock(pl, symtab));
+                    int n = wordCount(pl);
+                    if (values != null) {
+                        for (int a = loaded.nextSetBit(addr); a >= 0 && a < addr + n; a = loaded.nextSetBit(a + 1)) {
+                            shadowed.add(new int[] { a, image[a] });
+                        }
+                        System.arraycopy(values, 0, image, addr, n);
+                        loaded.set(addr, addr + n);
+                    }
+                    if (listing != null) listing.block(pl, addr, n, values != null && n > 0 ? values[0] : null);
+                    if (map != null) writeMapEntry(map, pl, addr, n);
+                    continue;
+                }
+
+                int word = withOrigin(pl, () -> pl.op.equals("DATA")
+                        ? encodeData(pl, symtab) : encodeInstruction(pl, symtab));
+
+                // Load image: later words overwrite earlier ones, as they would at load time
+                if (loaded.get(addr)) shadowed.add(new int[] { addr, image[addr] });
+                image[addr] = word & 0xFFFF;
+                loaded.set(addr);
+
+                if (listing != null) listing.word(pl, addr, word);
+                if (map != null) writeMapEntry(map, pl, addr, 1);
+            }
+
+            // Load file: sorted, one contiguous segment after another
+            for (int a = loaded.nextSetBit(0); a >= 0; ) {
+                int end = loaded.nextClearBit(a);
+                writeLoadRun(load, a, Arrays.copyOfRange(image, a, end), opt.compactLoad);
+                a = loaded.nextSetBit(end);
+            }
+
+            if (listing != null) listing.finish(notes, mem);
+            if (map != null) writeMapNotes(map, notes, shadowed);
+        }
+    }
+
+    // ========== Listing ==========
+    // output.lst, one line per listing entry, then the summaries:
+    //   <octal_addr(6)> <octal_word(6) | ------> [estimate] <original> [    [origin]] [    [n words a..b]]
+    // Written by pass 2, and by Relister6461 from source + output.map + output.load.
+    static class Listing {
+        final BufferedWriter lst;
+        final CostTable costs;     // null: no estimates
+        final BlockSummary blocks; // null unless costs != null
+
+        Listing(BufferedWriter lst, CostTable costs) {
+            this.lst = lst;
+            this.costs = costs;
+            this.blocks = (costs != null) ? new BlockSummary() : null;
+        }
+
+        void label(String label, int addr) {
+            if (blocks != null) blocks.label(label, addr);
+        }
+
+        void loc(ParsedLine pl, int addr) throws IOException {
+            line(addr, "------", (costs != null) ? Estimate.BLANK : "", pl, "");
+            if (blocks != null) {
+                blocks.end();
+                if (pl.label != null) blocks.label(pl.label, addr);
+            }
+        }
+
+        // first: the first word, or null when nothing is loaded (SPACE, empty blocks)
+        void block(ParsedLine pl, int addr, int n, Integer first) throws IOException {
+            String range = (n == 0) ? "    [0 words]"
+                    : "    [" + n + " words " + fmt6(addr) + ".." + fmt6(addr + n - 1) + "]";
+            line(addr, (first != null) ? fmt6(first) : "------", (costs != null) ? Estimate.BLANK : "", pl, range);
+            if (blocks != null) blocks.end();
+        }
+
+        void word(ParsedLine pl, int addr, int word) throws IOException {
+            String note = "";
+            if (costs != null) {
+                Estimate est = pl.op.equals("DATA") ? null : Estimate.of(pl.op, word, costs);
+                note = (est != null) ? est.column() : Estimate.BLANK;
+                if (est != null) blocks.add(addr, pl.op, est.cycles, est.memRefs); else blocks.end();
+            }
+            line(addr, fmt6(word & 0xFFFF), note, pl, "");
+        }
+
+        private void line(int addr, String word, String note, ParsedLine pl, String suffix) throws IOException {
+            lst.write(fmt6(addr) + " " + word + " " + note + pl.original
+                    + (pl.origin != null ? "    [" + pl.origin + "]" : "") + suffix);
+            lst.newLine();
+        }
+
+        void finish(List<String> notes, MemoryMap mem) throws IOException {
+            if (blocks != null) blocks.write(lst, "Basic-block estimates (cycles exclude branch outcomes):");
+            if (!notes.isEmpty()) {
+                lst.newLine();
+                for (String note : notes) {
+                    lst.write(note);
+                    lst.newLine();
+                }
+            }
+            mem.write(lst);
+        }
+    }
+
+    // ========== Memory Map ==========
+    // Occupancy of the 64K address space after layout: one bit per word claimed by an
+    // instruction, Data or block directive (SPACE included), plus the source line that claimed
+    // each range. A claim over bits already set is an overlap: at load time the later word wins,
+    // so it is reported (a warning, or an error with --overlap-error).
+    static class MemoryMap {
+        static final int SIZE = 1 << 16;
+
+        final BitSet used = new BitSet(SIZE);
+        final TreeMap<Integer, List<int[]>> claims = new TreeMap<>(); // start -> {lineNo, words}
+        final List<Overlap> overlaps = new ArrayList<>();
+
+        static class Overlap {
+            final int lineNo, earlierLineNo, at, words;
+            Overlap(int lineNo, int earlierLineNo, int at, int words) {
+                this.lineNo = lineNo; this.earlierLineNo = earlierLineNo; this.at = at; this.words = words;
+            }
+            String message() {
+                return words + " word(s) from " + fmt6(at) + " overwrite line " + earlierLineNo + " at line " + lineNo;
+            }
+        }
+
+        static MemoryMap of(List<ParsedLine> parsed) {
+            MemoryMap m = new MemoryMap();
+            for (ParsedLine pl : parsed) {
+                if (pl.op != null && pl.generatesWord && pl.location >= 0) m.claim(pl.lineNo, pl.location, wordCount(pl));
+            }
+            return m;
+        }
+
+        void claim(int lineNo, int start, int n) {
+            if (n == 0) return;
+            if (start + n > SIZE) throw new IllegalArgumentException("Words run past address 177777 at line " + lineNo);
+            int clash = used.nextSetBit(start);
+            if (clash >= 0 && clash < start + n) {
+                overlaps.add(new Overlap(lineNo, ownerOf(clash), clash, used.get(start, start + n).cardinality()));
+            }
+            used.set(start, start + n);
+            claims.computeIfAbsent(start, k -> new ArrayList<>(1)).add(new int[] { lineNo, n });
+        }
+
+        // Line of the latest claim whose range holds addr
+        private int ownerOf(int addr) {
+            for (Map.Entry<Integer, List<int[]>> e : claims.headMap(addr, true).descendingMap().entrySet()) {
+                List<int[]> lines = e.getValue();
+                for (int k = lines.size() - 1; k >= 0; k--) {
+                    if (e.getKey() + lines.get(k)[1] > addr) return lines.get(k)[0];
+                }
+            }
+            return 0;
+        }
+
+        void reject() {
+            if (!overlaps.isEmpty()) throw new IllegalArgumentException("Overlap: " + overlaps.get(0).message());
+        }
+
+        // Coalesced claimed ranges as {start, end exclusive}
+        List<int[]> segments() {
+            List<int[]> out = new ArrayList<>();
+            for (int a = used.nextSetBit(0); a >= 0; ) {
+                int end = used.nextClearBit(a);
+                out.add(new int[] { a, end });
+                a = used.nextSetBit(end);
+            }
+            return out;
+        }
+
+        void write(BufferedWriter lst) throws IOException {
+            List<int[]> segs = segments();
+            lst.newLine();
+            lst.write("Memory map: " + used.cardinality() + " word(s) in " + segs.size() + " segment(s)");
+            lst.newLine();
+            lst.write(String.format("%-8s %-6s %-6s %6s", "Segment", "Start", "End", "Words"));
+            lst.newLine();
+            int prev = FIRST_FREE;
+            List<String> gaps = new ArrayList<>();
+            for (int k = 0; k < segs.size(); k++) {
+                int[] s = segs.get(k);
+                lst.write(String.format("%-8d %s %s %6d", k + 1, fmt6(s[0]), fmt6(s[1] - 1), s[1] - s[0]));
+                lst.newLine();
+                if (s[0] > prev) gaps.add(fmt6(prev) + ".." + fmt6(s[0] - 1) + " (" + (s[0] - prev) + ")");
+                prev = Math.max(prev, s[1]);
+            }
+            if (prev < SIZE) gaps.add(fmt6(prev) + ".." + fmt6(SIZE - 1) + " (" + (SIZE - prev) + ")");
+            lst.write("Free: " + String.join(", ", gaps));
+            lst.newLine();
+            for (Overlap o : overlaps) {
+                lst.write("Overlap: " + o.message());
+                lst.newLine();
+            }
+        }
+    }
+
+    // Re-throws encoding errors of expanded lines with their include/macro origin
+    static <T> T withOrigin(ParsedLine pl, java.util.function.Supplier<T> encode) {
+        try {
+            return encode.get();
+        } catch (IllegalArgumentException e) {
+            if (pl.origin == null) throw e;
+            throw new IllegalArgumentException(e.getMessage() + " (" + pl.origin + ")", e);
+        }
+    }
+
+    // ========== Load Records ==========
+    // Plain:   <octal_addr(6)> <octal_word(6)>
+    // Run:     <octal_addr(6)> <octal_word(6)> <decimal count>   (count consecutive copies;
+    //          only written with --compact-load, so plain loaders see the old format)
+    static void writeLoadRecord(BufferedWriter load, int addr, int word, int count) throws IOException {
+        load.write(fmt6(addr) + " " + fmt6(word & 0xFFFF));
+        if (count != 1) load.write(" " + count);
+        load.newLine();
+    }
+
+    static void writeLoadRun(BufferedWriter load, int addr, int[] values, boolean compact) throws IOException {
+        int k = 0;
+        while (k < values.length) {
+            int run = 1;
+            if (compact) {
+                while (k + run < values.length && values[k + run] == values[k]) run++;
+            }
+            writeLoadRecord(load, addr + k, values[k], run);
+            k += run;
+        }
+    }
+
+    interface LoadSink {
+        void put(int addr, int word, int count);
+    }
+
+    static void readLoadFile(Path p, LoadSink sink) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(p)) {
+            String line;
+            int n = 0;
+            while ((line = r.readLine()) != null) {
+                n++;
+                String t = line.trim();
+                if (t.isEmpty()) continue;
+                String[] f = t.split("\\s+");
+                if (f.length < 2 || f.length > 3) throw new IllegalArgumentException("Bad load record at line " + n + " of " + p);
+                try {
+                    int count = (f.length == 3) ? Integer.parseInt(f[2]) : 1;
+                    if (count < 0) throw new NumberFormatException();
+                    sink.put(Integer.parseInt(f[0], 8), Integer.parseInt(f[1], 8) & 0xFFFF, count);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad load record at line " + n + " of " + p);
+                }
+            }
+        }
+    }
+
+    // Load file as sorted contiguous segments {start, words...}: consecutive records (and runs)
+    // are merged so a loader can copy each segment in one call. Later records win.
+    static List<int[]> readLoadSegments(Path p) throws IOException {
+        int[] image = new int[MemoryMap.SIZE];
+        BitSet loaded = new BitSet(MemoryMap.SIZE);
+        readLoadFile(p, (addr, word, count) -> {
+            if (addr < 0 || addr + count > MemoryMap.SIZE) {
+                throw new IllegalArgumentException("Load record at " + addr + " runs past address 177777 in " + p);
+            }
+            Arrays.fill(image, addr, addr + count, word);
+            loaded.set(addr, addr + count);
+        });
+        List<int[]> out = new ArrayList<>();
+        for (int a = loaded.nextSetBit(0); a >= 0; ) {
+            int end = loaded.nextClearBit(a);
+            int[] seg = new int[end - a + 1];
+            seg[0] = a;
+            System.arraycopy(image, a, seg, 1, end - a);
+            out.add(seg);
+            a = loaded.nextSetBit(end);
+        }
+        return out;
+    }
+
+    // Load file records as addr -> word (runs expanded)
+    static Map<Integer, Integer> readLoadFile(Path p) throws IOException {
+        Map<Integer, Integer> out = new HashMap<>();
+        readLoadFile(p, (addr, word, count) -> {
+            for (int k = 0; k < count; k++) out.put(addr + k, word);
+        });
+        return out;
+    }
+
+    // ========== Relocatable Objects (see Linker6461) ==========
+    // Object mode assembles one module without fixing its final addresses:
+    //  - SECTION <name>      starts a relocatable section (offsets from 0)
+    //  - LOC <decimal>       starts an absolute section at that address
+    //  - GLOBAL s1[,s2...]   exports labels to other modules
+    //  - EXTERN s1[,s2...]   imports labels from other modules
+    // Code before the first SECTION/LOC goes to a relocatable section named after the module.
+    // Every operand whose value moves with one relocatable section or external label
+    // (label, label+n, label-n, ...) is encoded as 0 and recorded as a relocation against that
+    // label plus an addend; the linker adds the final address (ADDR5: 5-bit address field,
+    // WORD16: Data). Differences of labels in the same section are constants.
+    // EQU may only use constants and absolute labels.
+    //
+    // Object file (text):
+    //   MODULE <name>
+    //   SECTION <name> REL|ABS <octal_base> <size>
+    //   <octal_offset(6)> <octal_word(6)>              (words of the preceding SECTION)
+    //   RELOC <octal_offset(6)> ADDR5|WORD16 <symbol> [addend]   (in the preceding SECTION)
+    //   SYMBOL <name> <section> <octal_offset(6)> GLOBAL|LOCAL
+    //   EXTERN <name>
+    //   INCLUDE <absolute path>                        (dependency, for cache checks)
+    //   END
+    static class ObjectModule {
+        final String name;
+        final List<ObjSection> sections = new ArrayList<>();
+        final Map<String, ObjSymbol> symbols = new LinkedHashMap<>();
+        final Set<String> externs = new LinkedHashSet<>();
+        final Set<String> includes = new LinkedHashSet<>(); // absolute paths of INCLUDEd files
+        ObjectModule(String name) { this.name = name; }
+
+        ObjSection section(String name) {
+            for (ObjSection s : sections) if (s.name.equals(name)) return s;
+            return null;
+        }
+    }
+
+    static class ObjSection {
+        final String name;
+        final boolean absolute;
+        final int base; // absolute address (ABS) or 0 (REL)
+        final List<Integer> words = new ArrayList<>();
+        final List<ObjReloc> relocs = new ArrayList<>();
+        ObjSection(String name, boolean absolute, int base) { this.name = name; this.absolute = absolute; this.base = base; }
+    }
+
+    static class ObjReloc {
+        final int offset;
+        final boolean addr5; // false: WORD16
+        final String symbol;
+        final int addend;
+        ObjReloc(int offset, boolean addr5, String symbol, int addend) {
+            this.offset = offset; this.addr5 = addr5; this.symbol = symbol; this.addend = addend;
+        }
+    }
+
+    static class ObjSymbol {
+        final String name, section;
+        final int offset;
+        boolean global;
+        ObjSymbol(String name, String section, int offset) { this.name = name; this.section = section; this.offset = offset; }
+    }
+
+    static ObjectModule assembleObject(String moduleName, List<String> lines, Path file) {
+        Preprocessor pp = new Preprocessor();
+        List<ParsedLine> parsed = preprocess(parseLines(lines), file, pp);
+        List<LiteralPool> literals = collectLiterals(parsed);
+        parsed.addAll(literals.get(literals.size() - 1).words); // leftovers close the last section
+
+        ObjectModule m = new ObjectModule(moduleName);
+        for (Path inc : pp.includes) m.includes.add(inc.toString());
+        Map<ParsedLine, ObjSection> sectionOf = new IdentityHashMap<>();
+        Map<String, Integer> constants = new HashMap<>(); // EQU values and absolute labels
+        ObjSection cur = null;
+        int loc = 0;
+
+        // Pass 1: sections, section-relative locations, symbols
+        for (int k = 0; k < parsed.size(); k++) {
+            ParsedLine pl = foldCount(parsed.get(k), constants);
+            parsed.set(k, pl);
+
+            if ("EQU".equals(pl.op)) {
+                if (m.symbols.containsKey(pl.label)) {
+                    throw new IllegalArgumentException("Duplicate label '" + pl.label + "' at line " + pl.lineNo);
+                }
+                List<ParsedLine> forward = new ArrayList<>();
+                defineEqu(pl, constants, forward);
+                if (!forward.isEmpty()) {
+                    throw new IllegalArgumentException("EQU in object mode may only use constants and earlier absolute labels at line " + pl.lineNo);
+                }
+                continue;
+            }
+
+            if ("SECTION".equals(pl.op) || "LOC".equals(pl.op)) {
+                if (pl.operands.size() != 1) throw new IllegalArgumentException(pl.op + " expects 1 operand at line " + pl.lineNo);
+                String name;
+                boolean abs = pl.op.equals("LOC");
+                int base = 0;
+                if (abs) {
+                    base = evalValue(pl.operands.get(0), constants, pl.lineNo);
+                    if (base < 0) throw new IllegalArgumentException("LOC must be >= 0 at line " + pl.lineNo);
+                    name = "ABS@" + fmt6(base);
+                } else {
+                    name = pl.operands.get(0);
+                }
+                if (m.section(name) != null) throw new IllegalArgumentException("Duplicate section '" + name + "' at line " + pl.lineNo);
+                cur = new ObjSection(name, abs, base);
+                m.sections.add(cur);
+                loc = 0;
+                pl.location = base;
+            } else if (cur == null && (pl.label != null || pl.generatesWord)) {
+                cur = new ObjSection(moduleName, false, 0);
+                m.sections.add(cur);
+            }
+
+            if ("GLOBAL".equals(pl.op) || "EXTERN".equals(pl.op)) {
+                for (String s : pl.operands) {
+                    if (pl.op.equals("EXTERN")) m.externs.add(s);
+                }
+            }
+
+            if (pl.label != null) {
+                if (m.symbols.containsKey(pl.label) || constants.containsKey(pl.label)) {
+                    throw new IllegalArgumentException("Duplicate label '" + pl.label + "' at line " + pl.lineNo);
+                }
+                m.symbols.put(pl.label, new ObjSymbol(pl.label, cur.name, loc));
+                if (cur.absolute) constants.put(pl.label, cur.base + loc);
+            }
+
+            if (pl.op != null && pl.generatesWord) {
+                pl.location = cur.base + loc;
+                sectionOf.put(pl, cur);
+                loc += wordCount(pl);
+            }
+        }
+
+        for (ParsedLine pl : parsed) {
+            if (!"GLOBAL".equals(pl.op)) continue;
+            for (String s : pl.operands) {
+                ObjSymbol sym = m.symbols.get(s);
+                if (sym == null) throw new IllegalArgumentException("GLOBAL of undefined label '" + s + "' at line " + pl.lineNo);
+                sym.global = true;
+            }
+        }
+        for (String e : m.externs) {
+            if (m.symbols.containsKey(e)) throw new IllegalArgumentException("EXTERN '" + e + "' is also defined in " + moduleName);
+        }
+
+        // Encoding symtab: absolute labels are final, relocatable ones hold their section
+        // offset (so same-section differences fold), externals are 0
+        Map<String, Integer> symtab = new HashMap<>(constants);
+        for (ObjSymbol s : m.symbols.values()) {
+            ObjSection sec = m.section(s.section);
+            symtab.put(s.name, sec.absolute ? sec.base + s.offset : s.offset);
+        }
+        for (String e : m.externs) symtab.put(e, 0);
+
+        // Pass 2: words + relocations
+        for (ParsedLine pl : parsed) {
+            ObjSection sec = sectionOf.get(pl);
+            if (sec == null) continue;
+            int offset = sec.words.size();
+            if (isBlockData(pl.op)) {
+                int[] values = encodeBlock(pl, symtab);
+                int n = wordCount(pl);
+                for (int k = 0; k < n; k++) sec.words.add(values == null ? 0 : values[k]);
+                List<String> vals = valueOperands(pl);
+                for (int k = 0; k < n && !vals.isEmpty(); k++) {
+                    String v = pl.op.equals("FILL") ? vals.get(0) : vals.get(k);
+                    ObjReloc r = relocation(m, symtab, v, offset + k, false, pl.lineNo);
+                    if (r != null) {
+                        sec.relocs.add(r);
+                        sec.words.set(offset + k, 0);
+                    }
+                }
+                continue;
+            }
+
+            boolean data = pl.op.equals("DATA");
+            int at = data ? 0 : addrOperandIndex(pl);
+            // Only the address field and Data words can be relocated; anything else would
+            // silently encode the section offset
+            for (int k = 0; k < pl.operands.size(); k++) {
+                if (k != at && relocation(m, symtab, pl.operands.get(k), offset, false, pl.lineNo) != null) {
+                    throw new IllegalArgumentException(pl.op + " operand '" + pl.operands.get(k)
+                            + "' depends on a relocatable or EXTERN label (only address operands and Data are relocated) at line " + pl.lineNo);
+                }
+            }
+            ObjReloc r = (at >= 0 && at < pl.operands.size())
+                    ? relocation(m, symtab, pl.operands.get(at), offset, !data, pl.lineNo) : null;
+            ParsedLine enc = pl;
+            if (r != null) {
+                List<String> ops = new ArrayList<>(pl.operands);
+                ops.set(at, "0");
+                enc = pl.withOperands(ops);
+                sec.relocs.add(r);
+            }
+            sec.words.add(data ? encodeData(enc, symtab) : encodeInstruction(enc, symtab));
+        }
+        return m;
+    }
+
+    // Relocation for an operand whose value moves with exactly one relocatable section or
+    // external label, or null if it is constant. Found by re-evaluating the expression with
+    // each unit displaced: a relocatable operand must move by exactly the displacement with
+    // one unit and not at all with the others.
+    private static ObjReloc relocation(ObjectModule m, Map<String, Integer> symtab, String s,
+                                       int offset, boolean addr5, int lineNo) {
+        if (isNumber(s)) return null;
+        Expr e = expr(s, lineNo);
+        Map<String, List<String>> units = new LinkedHashMap<>(); // section or extern -> symbols
+        for (String name : e.symbols()) {
+            ObjSymbol sym = m.symbols.get(name);
+            if (m.externs.contains(name)) {
+                units.computeIfAbsent("extern " + name, u -> new ArrayList<>()).add(name);
+            } else if (sym != null && !m.section(sym.section).absolute) {
+                units.computeIfAbsent(sym.section, u -> new ArrayList<>()).add(name);
+            }
+        }
+        if (units.isEmpty()) return null;
+
+        int value = e.eval(symtab, lineNo);
+        String moving = null;
+        for (Map.Entry<String, List<String>> u : units.entrySet()) {
+            boolean moves = false, fixed = false;
+            for (int delta : new int[] { 1, 4096 }) {
+                Map<String, Integer> shifted = new HashMap<>(symtab);
+                for (String name : u.getValue()) shifted.put(name, symtab.get(name) + delta);
+                int d = e.eval(shifted, lineNo) - value;
+                if (d == delta) moves = true; else if (d == 0) fixed = true; else moves = fixed = true;
+            }
+            if (moves && fixed || moves && moving != null) {
+                throw new IllegalArgumentException("Expression '" + s + "' is not relocatable (use label, label+n or label-n) at line " + lineNo);
+            }
+            if (moves) moving = u.getValue().get(0);
+        }
+        if (moving == null) return null; // e.g. End-Start within one section
+        return new ObjReloc(offset, addr5, moving, value - symtab.get(moving));
+    }
+
+    static void writeObject(ObjectModule m, Path p) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(p)) {
+            out.write("MODULE " + m.name);
+            out.newLine();
+            for (ObjSection s : m.sections) {
+                out.write("SECTION " + s.name + " " + (s.absolute ? "ABS" : "REL") + " " + fmt6(s.base) + " " + s.words.size());
+                out.newLine();
+                for (int k = 0; k < s.words.size(); k++) {
+                    out.write(fmt6(k) + " " + fmt6(s.words.get(k)));
+                    out.newLine();
+                }
+                for (ObjReloc r : s.relocs) {
+                    out.write("RELOC " + fmt6(r.offset) + " " + (r.addr5 ? "ADDR5" : "WORD16") + " " + r.symbol
+                            + (r.addend != 0 ? " " + r.addend : ""));
+                    out.newLine();
+                }
+            }
+            for (ObjSymbol s : m.symbols.values()) {
+                out.write("SYMBOL " + s.name + " " + s.section + " " + fmt6(s.offset) + " " + (s.global ? "GLOBAL" : "LOCAL"));
+                out.newLine();
+            }
+            for (String e : m.externs) {
+                out.write("EXTERN " + e);
+                out.newLine();
+            }
+            for (String inc : m.includes) {
+                out.write("INCLUDE " + inc);
+                out.newLine();
+            }
+            out.write("END");
+            out.newLine();
+        }
+    }
+
+    static ObjectModule readObject(Path p) throws IOException {
+        ObjectModule m = null;
+        ObjSection cur = null;
+        int n = 0;
+        for (String line : Files.readAllLines(p)) {
+            n++;
+            String t = line.trim();
+            if (t.isEmpty()) continue;
+            String[] f = t.split("\\s+");
+            String where = " at line " + n + " of " + p;
+            try {
+                if (f[0].equals("MODULE") && f.length == 2) {
+                    m = new ObjectModule(f[1]);
+                } else if (m == null) {
+                    throw new IllegalArgumentException("Missing MODULE record" + where);
+                } else if (f[0].equals("SECTION") && f.length == 5) {
+                    cur = new ObjSection(f[1], f[2].equals("ABS"), Integer.parseInt(f[3], 8));
+                    m.sections.add(cur);
+                } else if (f[0].equals("RELOC") && (f.length == 4 || f.length == 5) && cur != null) {
+                    cur.relocs.add(new ObjReloc(Integer.parseInt(f[1], 8), f[2].equals("ADDR5"), f[3],
+                            f.length == 5 ? Integer.parseInt(f[4]) : 0));
+                } else if (f[0].equals("SYMBOL") && f.length == 5) {
+                    ObjSymbol s = new ObjSymbol(f[1], f[2], Integer.parseInt(f[3], 8));
+                    s.global = f[4].equals("GLOBAL");
+                    m.symbols.put(s.name, s);
+                } else if (f[0].equals("EXTERN") && f.length == 2) {
+                    m.externs.add(f[1]);
+                } else if (f[0].equals("INCLUDE") && f.length >= 2) {
+                    m.includes.add(t.substring("INCLUDE".length()).trim());
+                } else if (f[0].equals("END")) {
+                    return m;
+                } else if (f.length == 2 && cur != null) {
+                    int off = Integer.parseInt(f[0], 8);
+                    if (off != cur.words.size()) throw new IllegalArgumentException("Out-of-order word" + where);
+                    cur.words.add(Integer.parseInt(f[1], 8) & 0xFFFF);
+                } else {
+                    throw new IllegalArgumentException("Bad object record" + where);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number in object record" + where);
+            }
+        }
+        throw new IllegalArgumentException("Missing END record in " + p);
+    }
+
+    // ========== Source Map ==========
+    // output.map: <octal_addr(6)> <source line> <words> [|<text>], in listing order.
+    // words = 0 marks a listing entry that emits nothing (LOC).
+    // |<text> follows entries the assembler made up (literal / pointer words, pool LOCs), which
+    // have no source text of their own; the line number is that of the line that caused them.
+    // The listing notes (pool summaries) follow as "# <note>" lines, and every loaded word that a
+    // later line overwrote as "! <octal_addr(6)> <octal_word(6)>", so the listing can be rebuilt.
+    static void writeMapEntry(BufferedWriter map, ParsedLine pl, int addr, int words) throws IOException {
+        map.write(fmt6(addr) + " " + pl.lineNo + " " + words);
+        if (pl.synthetic) map.write(" |" + pl.original);
+        map.newLine();
+    }
+
+    static void writeMapNotes(BufferedWriter map, List<String> notes, List<int[]> shadowed) throws IOException {
+        for (String note : notes) {
+            map.write("# " + note);
+            map.newLine();
+        }
+        for (int[] w : shadowed) {
+            map.write("! " + fmt6(w[0]) + " " + fmt6(w[1]));
+            map.newLine();
+        }
+    }
+
+    static class MapEntry {
+        final int addr, lineNo, words;
+        final String text; // synthetic entries only; null otherwise
+        MapEntry(int addr, int lineNo, int words, String text) {
+            this.addr = addr; this.lineNo = lineNo; this.words = words; this.text = text;
+        }
+    }
+
+    static List<MapEntry> readSourceMap(Path p) throws IOException {
+        List<MapEntry> out = new ArrayList<>();
+        int n = 0;
+        for (String line : Files.readAllLines(p)) {
+            n++;
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("#") || t.startsWith("!")) continue;
+            int bar = line.indexOf('|');
+            String text = (bar >= 0) ? line.substring(bar + 1) : null;
+            String[] f = SPACES.split((bar >= 0) ? line.substring(0, bar).trim() : t);
+            if (f.length != 3) throw new IllegalArgumentException("Bad source map record at line " + n + " of " + p);
+            out.add(new MapEntry(Integer.parseInt(f[0], 8), parseDecimal(f[1], n), parseDecimal(f[2], n), text));
+        }
+        return out;
+    }
+
+    // Text of the "# " (tag '#') or "! " (tag '!') lines, in order
+    static List<String> readMapNotes(Path p, char tag) throws IOException {
+        List<String> notes = new ArrayList<>();
+        for (String line : Files.readAllLines(p)) {
+            if (!line.isEmpty() && line.charAt(0) == tag) notes.add(line.substring(Math.min(2, line.length())));
+        }
+        return notes;
+    }
+
+    // Listing line of a synthetic entry: LOC (words = 0) or a labelled Data word
+    static ParsedLine syntheticLine(MapEntry e) {
+        String code = e.text.trim();
+        int colon = code.indexOf(':');
+        String label = (e.words > 0 && colon > 0) ? code.substring(0, colon) : null;
+        ParsedLine pl = new ParsedLine(e.lineNo, e.text, code, label, (e.words > 0) ? "DATA" : "LOC", List.of(), e.words > 0);
+        pl.synthetic = true;
+        return pl;
+    }
+
+    // ========== Static Cost Model ==========
+    // Cycles per instruction = base(format or mnemonic) + MEM per memory reference
+    //                          + INDEX per index-register add.
+    // A cost table file is key=value properties; mnemonic keys override format keys:
+    //   LS=2  XADDR=2  MLT=6  MEM=2  INDEX=1
+    static class CostTable {
+        final Map<String, Integer> base = new HashMap<>();
+        int mem = 2;    // per memory read/write (beyond the instruction fetch)
+        int index = 1;  // per IX add in the effective address
+
+        static CostTable defaults() {
+            CostTable ct = new CostTable();
+            ct.base.put("NONE", 1);
+            ct.base.put("TRAP", 4);
+            ct.base.put("LS", 2);
+            ct.base.put("XADDR", 2);
+            ct.base.put("IMM", 2);
+            ct.base.put("RI", 1);
+            ct.base.put("RR", 1);
+            ct.base.put("R", 1);
+            ct.base.put("SHIFT", 1);
+            ct.base.put("IO", 4);
+            ct.base.put("MLT", 4);
+            ct.base.put("DVD", 6);
+            return ct;
+        }
+
+        static CostTable load(Path p) throws IOException {
+            CostTable ct = defaults();
+            Properties props = new Properties();
+            try (Reader r = Files.newBufferedReader(p)) {
+                props.load(r);
+            }
+            for (String key : props.stringPropertyNames()) {
+                String k = key.trim().toUpperCase(Locale.ROOT);
+                String v = props.getProperty(key).trim();
+                int n = parseDecimal(v, 0);
+                if (n < 0) throw new IllegalArgumentException("Cost for '" + key + "' must be >= 0 in " + p);
+                if (k.equals("MEM")) ct.mem = n;
+                else if (k.equals("INDEX")) ct.index = n;
+                else if (OPC.containsKey(k) || isFormatName(k)) ct.base.put(k, n);
+                else throw new IllegalArgumentException("Unknown cost table key '" + key + "' in " + p);
+            }
+            return ct;
+        }
+
+        int baseCost(String op) {
+            Integer c = base.get(op);
+            if (c == null) {
+                Fmt f = FMT.get(op);
+                if (f == null) throw new IllegalArgumentException("No cost for unknown instruction '" + op + "'");
+                c = base.get(f.name());
+            }
+            return (c == null) ? 1 : c;
+        }
+
+        private static boolean isFormatName(String k) {
+            for (Fmt f : Fmt.values()) if (f.name().equals(k)) return true;
+            return false;
+        }
+    }
+
+    // Estimated cycles and operand memory references of one encoded instruction
+    static class Estimate {
+        static final String BLANK = String.format("%4s %-18s ", "", "");
+
+        final int cycles;
+        final int memRefs;
+        final String refs; // e.g. "rd:X2+10", "ptr:10 rd:@"
+
+        Estimate(int cycles, int memRefs, String refs) {
+            this.cycles = cycles;
+            this.memRefs = memRefs;
+            this.refs = refs;
+        }
+
+        String column() {
+            return String.format("%4d %-18s ", cycles, refs);
+        }
+
+        static Estimate of(String mnemonic, int word, CostTable ct) {
+            String op = mnemonic.toUpperCase(Locale.ROOT);
+            int ix = (word >>> 6) & 0x3;
+            int i = (word >>> 5) & 0x1;
+            int addr5 = word & 0x1F;
+
+            // Operand accesses at EA: reads, writes; and whether IX is an index register here
+            int reads = 0, writes = 0;
+            boolean usesEA = false, indexed = false;
+            switch (op) {
+                case "LDR": case "AMR": case "SMR": case "FADD": case "FSUB": case "CNVRT":
+                    reads = 1; usesEA = true; indexed = true; break;
+                case "VADD": case "VSUB":
+                    reads = 2; usesEA = true; indexed = true; break; // two vector base pointers
+                case "STR":
+                    writes = 1; usesEA = true; indexed = true; break;
+                case "LDA": case "JZ": case "JNE": case "JCC": case "SOB": case "JGE":
+                    usesEA = true; indexed = true; break;
+                case "LDX":
+                    reads = 1; usesEA = true; break;
+                case "STX":
+                    writes = 1; usesEA = true; break;
+                case "LDFR":
+                    reads = 1; usesEA = true; indexed = true; break;
+                case "STFR":
+                    writes = 1; usesEA = true; indexed = true; break;
+                case "JMA": case "JSR":
+                    usesEA = true; indexed = true; break;
+                default:
+                    break;
+            }
+
+            int memRefs = reads + writes;
+            int indexAdds = 0;
+            StringBuilder sb = new StringBuilder();
+            if (usesEA) {
+                String ea = (indexed && ix != 0) ? ("X" + ix + "+" + addr5) : Integer.toString(addr5);
+                if (indexed && ix != 0) indexAdds = 1;
+                if (i == 1) {
+                    memRefs++;
+                    sb.append("ptr:").append(ea);
+                    ea = "@";
+                }
+                if (reads > 0) sb.append(sb.length() > 0 ? " " : "").append(reads > 1 ? "rd" + reads + ":" : "rd:").append(ea);
+                if (writes > 0) sb.append(sb.length() > 0 ? " " : "").append(writes > 1 ? "wr" + writes + ":" : "wr:").append(ea);
+            }
+
+            int cycles = ct.baseCost(op) + memRefs * ct.mem + indexAdds * ct.index;
+            return new Estimate(cycles, memRefs, sb.toString());
+        }
+    }
+
+    // Per-label basic-block totals for the listing. A block starts at a label and ends
+    // after a transfer/halt, at LOC, or at a Data word.
+    static class BlockSummary {
+        static final Set<String> TRANSFERS = Set.of(
+                "JZ", "JNE", "JCC", "JMA", "JSR", "RFS", "SOB", "JGE", "HLT", "TRAP");
+
+        static class Block {
+            final String name;
+            final int start;
+            int words;
+            long cycles, memRefs;
+            Block(String name, int start) { this.name = name; this.start = start; }
+        }
+
+        final List<Block> blocks = new ArrayList<>();
+        private Block cur;
+        private String lastLabel;
+        private int lastLabelAddr;
+
+        void label(String label, int addr) {
+            cur = null;
+            lastLabel = label;
+            lastLabelAddr = addr;
+        }
+
+        void add(int addr, String op, long cycles, long memRefs) {
+            if (cur == null) {
+                String name = (lastLabel == null) ? "@" + fmt6(addr)
+                        : (addr == lastLabelAddr ? lastLabel : lastLabel + "+" + (addr - lastLabelAddr));
+                cur = new Block(name, addr);
+                blocks.add(cur);
+            }
+            cur.words++;
+            cur.cycles += cycles;
+            cur.memRefs += memRefs;
+            if (TRANSFERS.contains(op.toUpperCase(Locale.ROOT))) cur = null;
+        }
+
+        void end() {
+            cur = null;
+        }
+
+        void write(BufferedWriter lst, String title) throws IOException {
+            write(lst, title, blocks);
+        }
+
+        static void write(BufferedWriter lst, String title, List<Block> blocks) throws IOException {
+            lst.newLine();
+            lst.write(title);
+            lst.newLine();
+            lst.write(String.format("%-20s %6s %6s %7s %7s", "Block", "Start", "Words", "Cycles", "MemRefs"));
+            lst.newLine();
+            long words = 0, cycles = 0, memRefs = 0;
+            for (Block b : blocks) {
+                lst.write(String.format("%-20s %6s %6d %7d %7d", b.name, fmt6(b.start), b.words, b.cycles, b.memRefs));
+                lst.newLine();
+                words += b.words;
+                cycles += b.cycles;
+                memRefs += b.memRefs;
+            }
+            lst.write(String.format("%-20s %6s %6d %7d %7d", "Total", "", words, cycles, memRefs));
+            lst.newLine();
+        }
+    }
+
+    // ========== Encoders ==========
+    static int encodeData(ParsedLine pl, Map<String, Integer> symtab) {
+        if (pl.operands.size() != 1) {
+            throw new IllegalArgumentException("Data expects 1 operand at line " + pl.lineNo);
+        }
+        return encodeValue(pl.operands.get(0), symtab, pl.lineNo);
+    }
+
+    // Expression value as a 16-bit word
+    static int encodeValue(String v, Map<String, Integer> symtab, int lineNo) {
+        return evalValue(v, symtab, lineNo) & 0xFFFF;
+    }
+
+    // ========== Block Data: SPACE n / FILL n,value / WORDS v1,v2,... ==========
+    // One source line covers many words: pass 1 advances the location counter once, the
+    // listing shows a single collapsed line and --compact-load writes runs as one record.
+    // SPACE only reserves addresses (no load records).
+    static boolean isBlockData(String op) {
+        return "SPACE".equals(op) || "FILL".equals(op) || "WORDS".equals(op);
+    }
+
+    // Data or block data: words that hold values rather than instructions
+    static boolean isDataLike(String op) {
+        return "DATA".equals(op) || isBlockData(op);
+    }
+
+    // Number of addresses a line occupies
+    static int wordCount(ParsedLine pl) {
+        if (pl.op == null || !pl.generatesWord) return 0;
+        switch (pl.op) {
+            case "SPACE":
+                requireOperands(pl, 1);
+                return blockCount(pl);
+            case "FILL":
+                requireOperands(pl, 2);
+                return blockCount(pl);
+            case "WORDS":
+                if (pl.operands.isEmpty()) throw new IllegalArgumentException("WORDS expects at least 1 operand at line " + pl.lineNo);
+                return pl.operands.size();
+            default:
+                return 1;
+        }
+    }
+
+    // Symbolic counts are folded to decimals by pass 1 (foldCount); anything else must be constant
+    private static int blockCount(ParsedLine pl) {
+        String c = pl.operands.get(0);
+        int n = isNumber(c) ? parseDecimal(c, pl.lineNo) : evalValue(c, Map.of(), pl.lineNo);
+        if (n < 0 || n > 0xFFFF) throw new IllegalArgumentException(pl.op + " count must be 0..65535 at line " + pl.lineNo);
+        return n;
+    }
+
+    // Folds a symbolic SPACE/FILL count to a decimal so wordCount needs no symbol table
+    static ParsedLine foldCount(ParsedLine pl, Map<String, Integer> symtab) {
+        if (!"SPACE".equals(pl.op) && !"FILL".equals(pl.op)) return pl;
+        if (pl.operands.isEmpty() || isNumber(pl.operands.get(0))) return pl;
+        List<String> ops = new ArrayList<>(pl.operands);
+        ops.set(0, Integer.toString(evalValue(ops.get(0), symtab, pl.lineNo)));
+        return pl.withOperands(ops);
+    }
+
+    // Operands that are stored as values (Data, WORDS elements, FILL value)
+    static List<String> valueOperands(ParsedLine pl) {
+        if ("DATA".equals(pl.op) || "WORDS".equals(pl.op)) return pl.operands;
+        if ("FILL".equals(pl.op) && pl.operands.size() == 2) return pl.operands.subList(1, 2);
+        return List.of();
+    }
+
+    // Words of a block directive; null for SPACE (reserve only)
+    static int[] encodeBlock(ParsedLine pl, Map<String, Integer> symtab) {
+        int n = wordCount(pl);
+        switch (pl.op) {
+            case "SPACE":
+                return null;
+            case "FILL": {
+                int[] out = new int[n];
+                Arrays.fill(out, encodeValue(pl.operands.get(1), symtab, pl.lineNo));
+                return out;
+            }
+            default: {
+                int[] out = new int[n];
+                for (int k = 0; k < n; k++) out[k] = encodeValue(pl.operands.get(k), symtab, pl.lineNo);
+                return out;
+            }
+        }
+    }
+
+    // Encoders and operand range checks are generated per mnemonic from isa6461.txt (Isa6461)
+
+    static int encodeInstruction(ParsedLine pl, Map<String, Integer> symtab) {
+        return Isa6461.encode(pl.op, pl.operands, symtab, pl.lineNo);
+    }
+
+    // ========== Helpers for parsing operands ==========
+    static void requireOperands(ParsedLine pl, int n) {
+        if (pl.operands.size() != n) {
+            throw new IllegalArgumentException(pl.op + " expects " + n + " operands at line " + pl.lineNo);
+        }
+    }
+
+    // ========== Expressions ==========
+    // Every numeric operand (registers, IX, addresses, immediates, counts, Data values) is an
+    // integer expression over decimal numbers and symbols (labels, EQU names):
+    //   |  lowest
+    //   &
+    //   << >>
+    //   + -
+    //   * /
+    //   unary - + ~, ( )   highest
+    // Each distinct operand text is compiled once into a small tree and cached; pass 1, the
+    // optimizer, relaxation and pass 2 only evaluate it. Operands starting with '=' or '@'
+    // (literal and pointer-word symbols) are single symbols.
+    static final Map<String, Expr> EXPR_CACHE = new java.util.concurrent.ConcurrentHashMap<>();
+
+    abstract static class Expr {
+        abstract int eval(Map<String, Integer> symtab, int lineNo);
+
+        // Symbols referenced anywhere in the tree
+        final Set<String> symbols() {
+            Set<String> out = new LinkedHashSet<>();
+            collect(out);
+            return out;
+        }
+
+        void collect(Set<String> out) { }
+
+        static final class Num extends Expr {
+            final int value;
+            Num(int value) { this.value = value; }
+            int eval(Map<String, Integer> symtab, int lineNo) { return value; }
+        }
+
+        static final class Sym extends Expr {
+            final String name;
+            Sym(String name) { this.name = name; }
+            int eval(Map<String, Integer> symtab, int lineNo) {
+                Integer v = symtab.get(name);
+                if (v == null) throw new IllegalArgumentException("Unknown label '" + name + "' at line " + lineNo);
+                return v;
+            }
+            void collect(Set<String> out) { out.add(name); }
+        }
+
+        static final class Unary extends Expr {
+            final char op;
+            final Expr a;
+            Unary(char op, Expr a) { this.op = op; this.a = a; }
+            int eval(Map<String, Integer> symtab, int lineNo) {
+                int v = a.eval(symtab, lineNo);
+                return (op == '-') ? -v : (op == '~') ? ~v : v;
+            }
+            void collect(Set<String> out) { a.collect(out); }
+        }
+
+        static final class Binary extends Expr {
+            final char op; // + - * / & | < (<<) > (>>)
+            final Expr a, b;
+            Binary(char op, Expr a, Expr b) { this.op = op; this.a = a; this.b = b; }
+            int eval(Map<String, Integer> symtab, int lineNo) {
+                int x = a.eval(symtab, lineNo);
+                int y = b.eval(symtab, lineNo);
+                switch (op) {
+                    case '+': return x + y;
+                    case '-': return x - y;
+                    case '*': return x * y;
+                    case '/':
+                        if (y == 0) throw new IllegalArgumentException("Division by zero at line " + lineNo);
+                        return x / y;
+                    case '&': return x & y;
+                    case '|': return x | y;
+                    case '<': return x << y;
+                    default:  return x >> y;
+                }
+            }
+            void collect(Set<String> out) { a.collect(out); b.collect(out); }
+        }
+    }
+
+    static int evalValue(String s, Map<String, Integer> symtab, int lineNo) {
+        return expr(s, lineNo).eval(symtab, lineNo);
+    }
+
+    // Compiled (cached) expression; syntax errors carry the line number
+    static Expr expr(String s, int lineNo) {
+        Expr e = EXPR_CACHE.get(s);
+        if (e != null) return e;
+        try {
+            return EXPR_CACHE.computeIfAbsent(s, ExprParser::compile);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(ex.getMessage() + " at line " + lineNo);
+        }
+    }
+
+    static Expr compileOrNull(String s) {
+        try {
+            return expr(s, 0);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Value of an operand, or null if it does not parse or uses an unknown symbol
+    static Integer resolve(String s, Map<String, Integer> symtab) {
+        Expr e = compileOrNull(s);
+        if (e == null || !symtab.keySet().containsAll(e.symbols())) return null;
+        try {
+            return e.eval(symtab, 0);
+        } catch (IllegalArgumentException ex) {
+            return null; // division by zero
+        }
+    }
+
+    static class ExprParser {
+        final String s;
+        int p;
+
+        ExprParser(String s) { this.s = s; }
+
+        static Expr compile(String text) {
+            String t = text.trim();
+            if (t.startsWith("=") || t.startsWith("@")) return new Expr.Sym(t);
+            ExprParser ps = new ExprParser(t);
+            Expr e = ps.or();
+            ps.skip();
+            if (t.isEmpty() || ps.p < t.length()) throw new IllegalArgumentException("Bad expression '" + text + "'");
+            return e;
+        }
+
+        Expr or() {
+            Expr e = and();
+            while (eat("|")) e = new Expr.Binary('|', e, and());
+            return e;
+        }
+
+        Expr and() {
+            Expr e = shift();
+            while (eat("&")) e = new Expr.Binary('&', e, shift());
+            return e;
+        }
+
+        Expr shift() {
+            Expr e = sum();
+            while (true) {
+                if (eat("<<")) e = new Expr.Binary('<', e, sum());
+                else if (eat(">>")) e = new Expr.Binary('>', e, sum());
+                else return e;
+            }
+        }
+
+        Expr sum() {
+            Expr e = product();
+            while (true) {
+                if (eat("+")) e = new Expr.Binary('+', e, product());
+                else if (eat("-")) e = new Expr.Binary('-', e, product());
+                else return e;
+            }
+        }
+
+        Expr product() {
+            Expr e = unary();
+            while (true) {
+                if (eat("*")) e = new Expr.Binary('*', e, unary());
+                else if (eat("/")) e = new Expr.Binary('/', e, unary());
+                else return e;
+            }
+        }
+
+        Expr unary() {
+            if (eat("-")) return fold(new Expr.Unary('-', unary()));
+            if (eat("+")) return unary();
+            if (eat("~")) return fold(new Expr.Unary('~', unary()));
+            return primary();
+        }
+
+        Expr primary() {
+            skip();
+            if (eat("(")) {
+                Expr e = or();
+                if (!eat(")")) throw new IllegalArgumentException("Unbalanced parentheses in '" + s + "'");
+                return e;
+            }
+            int start = p;
+            if (p < s.length() && Character.isDigit(s.charAt(p))) {
+                while (p < s.length() && Character.isDigit(s.charAt(p))) p++;
+                try {
+                    return new Expr.Num(Integer.parseInt(s.substring(start, p)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Number out of range in '" + s + "'");
+                }
+            }
+            if (p < s.length() && (Character.isLetter(s.charAt(p)) || s.charAt(p) == '_')) {
+                while (p < s.length() && (Character.isLetterOrDigit(s.charAt(p)) || s.charAt(p) == '_')) p++;
+                return new Expr.Sym(s.substring(start, p));
+            }
+            throw new IllegalArgumentException("Expected a number or label in '" + s + "'");
+        }
+
+        // -5 stays a single constant node
+        private static Expr fold(Expr.Unary u) {
+            return (u.a instanceof Expr.Num) ? new Expr.Num(u.eval(Map.of(), 0)) : u;
+        }
+
+        private boolean eat(String tok) {
+            skip();
+            if (!s.startsWith(tok, p)) return false;
+            p += tok.length();
+            return true;
+        }
+
+        private void skip() {
+            while (p < s.length() && Character.isWhitespace(s.charAt(p))) p++;
         }
     }
 
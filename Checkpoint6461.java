@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Simulator Checkpoints
+ *
+ * Machine state snapshots in a memory-mapped file, so a long simulator run can resume
+ * mid-program. Memory is copied in one bulk put/get between the int[] and the mapping;
+ * the OS writes the dirty pages back on its own.
+ *
+ * File: two slots of SLOT_BYTES. Saves alternate between them, and a slot's sequence number
+ * is cleared before it is written and set last, so a run killed mid-save leaves the other
+ * slot intact. Restore takes the complete slot with the highest sequence.
+ *
+ * Slot layout (big-endian):
+ *   0  int   MAGIC                 4  int   memory words (Simulator6461.MEM_SIZE)
+ *   8  long  sequence (0: empty / being written)
+ *  16  long  steps
+ *  24  int   PC, CC, MFR, halted (0/1)
+ *  40  int   GPR R0..R3, IXR X0..X3, FR0..FR1
+ *  80  int   cache FIFO pointer    84  long  cache hits    92  long  cache misses
+ * 100  int   cache tags [Cache.LINES]
+ *  MEM_OFF   int   memory [MEM_SIZE]
+ *  DEV_OFF   per device id: int kind, int queue words, long file offset (Devices6461)
+ *  QUEUE_OFF int   queued words [QUEUE_WORDS], the queues' contents in id order
+ *
+ * Benchmark (snapshot and restore latency):
+ *  java Checkpoint6461 [load file] [--start addr] [--steps n] [--iterations n] [-o file]
+ */
+public class Checkpoint6461 implements Closeable {
+
+    static final int MAGIC = 0x434B3631; // "CK61"
+    static final int TAGS_OFF = 100;
+    static final int MEM_OFF = TAGS_OFF + 4 * Simulator6461.Cache.LINES;
+    static final int DEV_OFF = MEM_OFF + 4 * Simulator6461.MEM_SIZE;
+    static final int QUEUE_OFF = DEV_OFF + Devices6461.STATE_BYTES * Devices6461.COUNT;
+    static final int QUEUE_WORDS = Simulator6461.MEM_SIZE;
+    static final int SLOT_BYTES = QUEUE_OFF + 4 * QUEUE_WORDS;
+
+    final FileChannel ch;
+    final MappedByteBuffer buf;
+    long seq; // sequence of the latest complete slot
+
+    private Checkpoint6461(FileChannel ch, MappedByteBuffer buf) {
+        this.ch = ch;
+        this.buf = buf;
+        this.seq = Math.max(sequence(0), sequence(1));
+    }
+
+    // Opens (creating if needed) a checkpoint file and maps both slots
+    static Checkpoint6461 open(Path p) throws IOException {
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (ch.size() != 0 && ch.size() != 2L * SLOT_BYTES) {
+                throw new IllegalArgumentException(p + " is not a checkpoint file for " + Simulator6461.MEM_SIZE + " words of memory");
+            }
+            return new Checkpoint6461(ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, 2L * SLOT_BYTES));
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // ========== Save ==========
+    void save(Simulator6461 sim) throws IOException {
+        int slot = (int) ((seq + 1) & 1);
+        ByteBuffer b = buf.slice(slot * SLOT_BYTES, SLOT_BYTES);
+        b.putLong(8, 0);
+
+        b.putInt(0, MAGIC);
+        b.putInt(4, Simulator6461.MEM_SIZE);
+        b.putLong(16, sim.steps);
+        b.putInt(24, sim.pc);
+        b.putInt(28, sim.cc);
+        b.putInt(32, sim.mfr);
+        b.putInt(36, sim.halted ? 1 : 0);
+        putInts(b, 40, sim.gpr);
+        putInts(b, 56, sim.ixr);
+        putInts(b, 72, sim.fr);
+        b.putInt(80, sim.cache.next);
+        b.putLong(84, sim.cache.hits);
+        b.putLong(92, sim.cache.misses);
+        putInts(b, TAGS_OFF, sim.cache.tags);
+        putInts(b, MEM_OFF, sim.mem);
+        sim.devices.save(b, DEV_OFF, QUEUE_OFF, QUEUE_WORDS);
+
+        b.putLong(8, ++seq);
+    }
+
+    // ========== Restore ==========
+    // false: no complete slot
+    boolean restore(Simulator6461 sim) throws IOException {
+        long s0 = sequence(0), s1 = sequence(1);
+        if (s0 == 0 && s1 == 0) return false;
+        ByteBuffer b = buf.slice((s1 > s0 ? 1 : 0) * SLOT_BYTES, SLOT_BYTES);
+
+        sim.steps = b.getLong(16);
+        sim.pc = b.getInt(24);
+        sim.cc = b.getInt(28);
+        sim.mfr = b.getInt(32);
+        sim.halted = b.getInt(36) != 0;
+        getInts(b, 40, sim.gpr);
+        getInts(b, 56, sim.ixr);
+        getInts(b, 72, sim.fr);
+        sim.cache.next = b.getInt(80);
+        sim.cache.hits = b.getLong(84);
+        sim.cache.misses = b.getLong(92);
+        getInts(b, TAGS_OFF, sim.cache.tags);
+        getInts(b, MEM_OFF, sim.mem);
+        sim.devices.restore(b, DEV_OFF, QUEUE_OFF);
+        return true;
+    }
+
+    // Sequence of a slot, 0 unless it holds a complete checkpoint of this memory size
+    private long sequence(int slot) {
+        int at = slot * SLOT_BYTES;
+        if (buf.getInt(at) != MAGIC || buf.getInt(at + 4) != Simulator6461.MEM_SIZE) return 0;
+        return buf.getLong(at + 8);
+    }
+
+    private static void putInts(ByteBuffer b, int at, int[] v) {
+        b.slice(at, 4 * v.length).asIntBuffer().put(v);
+    }
+
+    private static void getInts(ByteBuffer b, int at, int[] v) {
+        b.slice(at, 4 * v.length).asIntBuffer().get(v);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buf.force();
+        ch.close();
+    }
+
+    // ========== Benchmark ==========
+    // Runs the program for --steps steps (default 10000), then times --iterations saves and
+    // restores of that state (default 100000) and checks the restored state matches.
+    public static void main(String[] args) throws Exception {
+        Path loadIn = Paths.get("output.load");
+        Path out = Paths.get("bench.ckpt");
+        Integer start = null;
+        long steps = 10_000;
+        int iterations = 100_000;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--start": start = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "--steps": steps = Long.parseLong(Simulator6461.argValue(args, i++)); break;
+                case "--iterations": iterations = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "-o": out = Paths.get(Simulator6461.argValue(args, i++)); break;
+                default: loadIn = Paths.get(args[i]);
+            }
+        }
+        if (iterations <= 0) throw new IllegalArgumentException("--iterations expects a positive count");
+
+        Simulator6461 sim = new Simulator6461();
+        int first = sim.load(loadIn);
+        sim.pc = (start != null) ? start : first;
+        sim.run(steps);
+        Simulator6461 back = new Simulator6461();
+
+        try (Checkpoint6461 cp = open(out)) {
+            long[] save = new long[iterations], restore = new long[iterations];
+            for (int k = 0; k < iterations; k++) {
+                long t0 = System.nanoTime();
+                cp.save(sim);
+                long t1 = System.nanoTime();
+                cp.restore(back);
+                save[k] = t1 - t0;
+                restore[k] = System.nanoTime() - t1;
+            }
+            if (!back.stateString().equals(sim.stateString()) || !Arrays.equals(back.mem, sim.mem)
+                    || !Arrays.equals(back.cache.tags, sim.cache.tags)) {
+                throw new IllegalStateException("Restored state differs from the saved state");
+            }
+            System.out.println("Checkpoint:  " + out.toAbsolutePath() + " (" + SLOT_BYTES + " bytes per slot, state after "
+                    + sim.steps + " steps)");
+            System.out.println(latency("Snapshot", save));
+            System.out.println(latency("Restore ", restore));
+        }
+    }
+
+    private static String latency(String what, long[] ns) {
+        long[] sorted = ns.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        return String.format("%s  mean %8.2f us   p50 %8.2f us   p99 %8.2f us   max %8.2f us", what,
+                mean / 1e3, sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3,
+                sorted[sorted.length - 1] / 1e3);
+    }
+}
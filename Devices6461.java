@@ -0,0 +1,369 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * CSCI 6461 Simulator Devices (IN / OUT / CHK)
+ *
+ * Maps the 32 device ids of the I/O instructions to NIO channels or in-memory queues.
+ * Channel devices move bytes through a per-device buffer: IN takes the next byte and
+ * refills the buffer with one channel read when it runs dry; OUT appends a byte and writes
+ * the buffer out when it is full, before an input device has to wait, and at close. So a
+ * text-heavy program makes one system call per BUFFER bytes instead of one per character.
+ *
+ * Device specs (--device id=spec):
+ *  stdin / stdout        the simulator's own standard streams
+ *  in:<path>             read a file (or named pipe)
+ *  out:<path>            write a file (or named pipe), truncating it
+ *  append:<path>         append to a file
+ *  queue[:<text>]        in-memory FIFO of 16-bit words, optionally preloaded with text;
+ *                        OUT appends, IN takes (a loopback between program parts)
+ * Defaults: 0 = stdin (keyboard), 1 = stdout (printer); other ids are unmapped.
+ *
+ * Values: channel devices carry bytes (IN yields 0..255, OUT writes the low 8 bits);
+ * queues carry whole words. IN at end of input, or on an unmapped or output-only device,
+ * yields 0; OUT to an unmapped or input-only device is discarded.
+ *
+ * CHK status, never blocking: 1 if the device has a value for IN (input devices, queues) or
+ * can take one (output devices), else 0; unmapped ids report 0. Input from a regular file is
+ * checked against its size and stdin uses available(); any other stream (a named pipe) reads
+ * as ready until it has reported end of input.
+ *
+ * Checkpoints save the read offset of input files, the size of output files and the words in
+ * each queue. A restore maps the same specs in resume mode (out: does not truncate) and puts
+ * every saved device back at its offset; standard streams and pipes cannot seek and carry on
+ * where they are.
+ */
+public class Devices6461 implements Closeable {
+
+    static final int COUNT = 32;
+    static final int BUFFER = 1 << 16;
+
+    final Device[] devices = new Device[COUNT];
+    boolean resume; // map() for a restore: keep out: files for the checkpoint to cut back
+
+    // Keyboard on 0, printer on 1
+    static Devices6461 standard() {
+        Devices6461 d = new Devices6461();
+        d.devices[0] = new Input(new FileInputStream(FileDescriptor.in));
+        d.devices[1] = new Output(new FileOutputStream(FileDescriptor.out).getChannel(), false);
+        return d;
+    }
+
+    // id=spec, replacing whatever id was mapped to
+    void map(String arg) throws IOException {
+        int eq = arg.indexOf('=');
+        if (eq < 0) throw new IllegalArgumentException("--device expects id=spec but got '" + arg + "'");
+        int id = Assembler6461.parseDecimal(arg.substring(0, eq).trim(), 0);
+        if (id < 0 || id >= COUNT) throw new IllegalArgumentException("Device id must be 0..31 but got " + id);
+        Device d = open(arg.substring(eq + 1), resume);
+        if (devices[id] != null) devices[id].close();
+        devices[id] = d;
+    }
+
+    static Device open(String spec, boolean resume) throws IOException {
+        int colon = spec.indexOf(':');
+        String kind = (colon < 0) ? spec : spec.substring(0, colon);
+        String arg = (colon < 0) ? null : spec.substring(colon + 1);
+        switch (kind) {
+            case "stdin": return new Input(new FileInputStream(FileDescriptor.in));
+            case "stdout": return new Output(new FileOutputStream(FileDescriptor.out).getChannel(), false);
+            case "in": {
+                Path p = path(spec, arg);
+                FileChannel ch = FileChannel.open(p, StandardOpenOption.READ);
+                return new Input(ch, Files.isRegularFile(p) ? ch : null);
+            }
+            case "out": {
+                Path p = path(spec, arg);
+                return new Output(resume
+                        ? FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                        : FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true);
+            }
+            case "append": return new Output(FileChannel.open(path(spec, arg), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND), true);
+            case "queue": {
+                WordQueue q = new WordQueue();
+                if (arg != null) for (int k = 0; k < arg.length(); k++) q.write(arg.charAt(k));
+                return q;
+            }
+            default: throw new IllegalArgumentException("Unknown device '" + spec + "'");
+        }
+    }
+
+    private static Path path(String spec, String arg) {
+        if (arg == null || arg.isEmpty()) throw new IllegalArgumentException("Device '" + spec + "' needs a path");
+        return Paths.get(arg);
+    }
+
+    // ========== Instructions ==========
+    int in(int id) {
+        Device d = devices[id];
+        if (d == null) return 0;
+        if (d instanceof Input && !((Input) d).buf.hasRemaining()) flush(); // show a prompt before waiting
+        return d.read();
+    }
+
+    void out(int id, int value) {
+        if (devices[id] != null) devices[id].write(value);
+    }
+
+    int chk(int id) {
+        return (devices[id] != null && devices[id].ready()) ? 1 : 0;
+    }
+
+    void flush() {
+        for (Device d : devices) if (d != null) d.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (Device d : devices) if (d != null) d.close();
+    }
+
+    // ========== Checkpoint State ==========
+    // Per id: int kind, int queue words, long offset; queue words go one after another
+    static final int SAVED_NONE = 0, SAVED_INPUT = 1, SAVED_OUTPUT = 2, SAVED_QUEUE = 3;
+    static final int STATE_BYTES = 16;
+    private static final String[] SAVED_NAMES = { "a stream or unmapped", "an input file", "an output file", "a queue" };
+
+    void save(ByteBuffer b, int at, int queueAt, int capacity) throws IOException {
+        flush();
+        int used = 0;
+        for (int id = 0; id < COUNT; id++) {
+            Device d = devices[id];
+            int kind = (d == null) ? SAVED_NONE : d.savedKind();
+            int words = 0;
+            long offset = 0;
+            if (kind == SAVED_QUEUE) {
+                WordQueue q = (WordQueue) d;
+                if (used + q.size > capacity) {
+                    throw new IllegalStateException("Device queues hold more than the " + capacity + " words a checkpoint keeps");
+                }
+                for (int k = 0; k < q.size; k++) b.putInt(queueAt + 4 * (used + k), q.ring[(q.head + k) & (q.ring.length - 1)]);
+                words = q.size;
+                used += words;
+            } else if (kind != SAVED_NONE) {
+                offset = d.offset();
+            }
+            b.putInt(at + id * STATE_BYTES, kind);
+            b.putInt(at + id * STATE_BYTES + 4, words);
+            b.putLong(at + id * STATE_BYTES + 8, offset);
+        }
+    }
+
+    // The devices mapped now must have the kinds saved; ids saved without state are left as they are
+    void restore(ByteBuffer b, int at, int queueAt) throws IOException {
+        int used = 0;
+        for (int id = 0; id < COUNT; id++) {
+            int kind = b.getInt(at + id * STATE_BYTES);
+            if (kind == SAVED_NONE) continue;
+            Device d = devices[id];
+            int now = (d == null) ? SAVED_NONE : d.savedKind();
+            if (now != kind) {
+                throw new IllegalArgumentException("Device " + id + " was " + SAVED_NAMES[kind] + " at the checkpoint but is "
+                        + SAVED_NAMES[now] + " now (pass the same --device options with --restore)");
+            }
+            if (kind == SAVED_QUEUE) {
+                WordQueue q = (WordQueue) d;
+                q.head = q.size = 0;
+                int words = b.getInt(at + id * STATE_BYTES + 4);
+                for (int k = 0; k < words; k++) q.write(b.getInt(queueAt + 4 * (used + k)));
+                used += words;
+            } else {
+                d.resume(id, b.getLong(at + id * STATE_BYTES + 8));
+            }
+        }
+    }
+
+    // ========== Devices ==========
+    abstract static class Device {
+        int read() { return 0; }
+        void write(int value) { }
+        abstract boolean ready();
+        void flush() { }
+        void close() throws IOException { }
+        int savedKind() { return SAVED_NONE; }
+        long offset() throws IOException { return 0; }
+        void resume(int id, long offset) throws IOException { }
+    }
+
+    // Buffered input: buf is kept flipped (position..limit = bytes not yet read)
+    static class Input extends Device {
+        final ReadableByteChannel ch;
+        final FileChannel file;   // regular files: CHK compares position and size
+        final InputStream stream; // stdin: CHK asks available(); never closed
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER).flip();
+        boolean eof;
+
+        Input(ReadableByteChannel ch, FileChannel file) {
+            this.ch = ch;
+            this.file = file;
+            this.stream = null;
+        }
+
+        Input(FileInputStream stdin) {
+            this.ch = stdin.getChannel();
+            this.file = null;
+            this.stream = stdin;
+        }
+
+        @Override
+        int read() {
+            if (!buf.hasRemaining() && !refill()) return 0;
+            return buf.get() & 0xFF;
+        }
+
+        private boolean refill() {
+            if (eof) return false;
+            try {
+                buf.clear();
+                int n = ch.read(buf);
+                buf.flip();
+                if (n < 0) eof = true;
+                return n > 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        boolean ready() {
+            if (buf.hasRemaining()) return true;
+            if (eof) return false;
+            try {
+                if (stream != null) return stream.available() > 0;
+                if (file != null) return file.position() < file.size();
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        int savedKind() {
+            return (file != null) ? SAVED_INPUT : SAVED_NONE;
+        }
+
+        // Bytes taken by IN: the channel is ahead by what is still buffered
+        @Override
+        long offset() throws IOException {
+            return file.position() - buf.remaining();
+        }
+
+        @Override
+        void resume(int id, long offset) throws IOException {
+            if (file.size() < offset) {
+                throw new IllegalArgumentException("Device " + id + " input is shorter than the " + offset + " bytes read before the checkpoint");
+            }
+            file.position(offset);
+            buf.clear().flip();
+            eof = false;
+        }
+
+        @Override
+        void close() throws IOException {
+            if (stream == null) ch.close();
+        }
+    }
+
+    // Buffered output: buf is kept in fill mode
+    static class Output extends Device {
+        final WritableByteChannel ch;
+        final boolean owned; // false for stdout, which outlives the devices
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+
+        Output(WritableByteChannel ch, boolean owned) {
+            this.ch = ch;
+            this.owned = owned;
+        }
+
+        @Override
+        void write(int value) {
+            if (!buf.hasRemaining()) flush();
+            buf.put((byte) value);
+        }
+
+        @Override
+        boolean ready() {
+            return true;
+        }
+
+        @Override
+        void flush() {
+            try {
+                buf.flip();
+                while (buf.hasRemaining()) ch.write(buf);
+                buf.clear();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        int savedKind() {
+            return (owned && ch instanceof FileChannel) ? SAVED_OUTPUT : SAVED_NONE;
+        }
+
+        @Override
+        long offset() throws IOException {
+            return ((FileChannel) ch).size();
+        }
+
+        // Drop what was written after the checkpoint (append: writes go to the new end anyway)
+        @Override
+        void resume(int id, long offset) throws IOException {
+            FileChannel f = (FileChannel) ch;
+            if (f.size() < offset) {
+                throw new IllegalArgumentException("Device " + id + " output is shorter than the " + offset + " bytes written before the checkpoint");
+            }
+            f.truncate(offset);
+            f.position(offset);
+            buf.clear();
+        }
+
+        @Override
+        void close() throws IOException {
+            flush();
+            if (owned) ch.close();
+        }
+    }
+
+    // Growable ring of words
+    static class WordQueue extends Device {
+        int[] ring = new int[256];
+        int head, size;
+
+        @Override
+        int read() {
+            if (size == 0) return 0;
+            int v = ring[head];
+            head = (head + 1) & (ring.length - 1);
+            size--;
+            return v;
+        }
+
+        @Override
+        void write(int value) {
+            if (size == ring.length) {
+                int[] grown = new int[ring.length * 2];
+                for (int k = 0; k < size; k++) grown[k] = ring[(head + k) & (ring.length - 1)];
+                ring = grown;
+                head = 0;
+            }
+            ring[(head + size) & (ring.length - 1)] = value & 0xFFFF;
+            size++;
+        }
+
+        @Override
+        boolean ready() {
+            return size > 0;
+        }
+
+        @Override
+        int savedKind() {
+            return SAVED_QUEUE;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Disassembler (table-driven)
+ *
+ * Every 16-bit word is decoded exactly once, up front, into a 65,536-entry table
+ * built with the decoder generated from isa6461.txt (Isa6461.decode). Disassembling
+ * an image is then one array lookup per word.
+ *
+ * A word only decodes to an instruction if it is the canonical encoding of that text
+ * (unused bits zero, every field in range); everything else decodes to "Data <decimal>".
+ * So for every word w (checked by --verify):
+ *   encode(decode(w)) == w
+ *
+ * Inputs:
+ *  - Load file:  <octal_addr(6)> <octal_word(6)> [count]   (default: output.load;
+ *                count > 1 is a run of equal words from Assembler6461 --compact-load)
+ *  - Raw dump:   big-endian 16-bit words starting at address 0 (--raw)
+ * Output (listing style):
+ *  <octal_addr(6)> <octal_word(6)> <mnemonic> <operands>
+ *
+ * Usage:
+ *  java Disassembler6461 [--raw] [--verify] [input] [-o output]
+ */
+public class Disassembler6461 {
+
+    static final int WORDS = 1 << 16;
+
+    // Decoded source text per word ("LDR     3,0,10", "Data    1024", ...)
+    private static volatile String[] table;
+
+    // ========== Entry ==========
+    public static void main(String[] args) throws Exception {
+        Path in = Paths.get("output.load");
+        Path out = null;
+        boolean raw = false;
+        boolean verify = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--raw": raw = true; break;
+                case "--verify": verify = true; break;
+                case "-o":
+                    if (i + 1 >= args.length) throw new IllegalArgumentException("-o expects a file name");
+                    out = Paths.get(args[++i]);
+                    break;
+                default: in = Paths.get(args[i]);
+            }
+        }
+
+        if (verify) {
+            int bad = verifyRoundTrip();
+            System.out.println(bad == 0 ? "Round trip OK for all " + WORDS + " words."
+                    : "Round trip FAILED for " + bad + " words.");
+            if (bad != 0) System.exit(1);
+            return;
+        }
+
+        Writer w = (out == null)
+                ? new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)
+                : Files.newBufferedWriter(out);
+        try {
+            if (raw) {
+                disassembleRaw(in, w);
+            } else {
+                disassembleLoad(in, w);
+            }
+        } finally {
+            w.flush();
+            if (out != null) w.close();
+        }
+    }
+
+    // ========== Decode Table ==========
+    static String[] table() {
+        String[] t = table;
+        if (t == null) {
+            synchronized (Disassembler6461.class) {
+                t = table;
+                if (t == null) {
+                    t = buildTable();
+                    table = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    static String decode(int word) {
+        return table()[word & 0xFFFF];
+    }
+
+    private static String[] buildTable() {
+        String[] t = new String[WORDS];
+        for (int w = 0; w < WORDS; w++) {
+            String text = Isa6461.decode(w);
+            t[w] = (text != null) ? text : listingText("Data", List.of(Integer.toString(w)));
+        }
+        return t;
+    }
+
+    private static String listingText(String op, List<String> operands) {
+        StringBuilder sb = new StringBuilder(op);
+        if (!operands.isEmpty()) {
+            while (sb.length() < 8) sb.append(' ');
+            sb.append(String.join(",", operands));
+        }
+        return sb.toString();
+    }
+
+    // ========== Round Trip ==========
+    // encode(decode(w)) == w for every 16-bit word; returns the number of mismatches
+    static int verifyRoundTrip() {
+        String[] t = table();
+        Map<String, Integer> noSymbols = Map.of();
+        int bad = 0;
+        for (int w = 0; w < WORDS; w++) {
+            List<Assembler6461.ParsedLine> pls = Assembler6461.parseLines(List.of(t[w]));
+            Assembler6461.ParsedLine pl = pls.get(0);
+            int enc;
+            try {
+                enc = pl.op.equals("DATA") ? Assembler6461.encodeData(pl, noSymbols)
+                                           : Assembler6461.encodeInstruction(pl, noSymbols);
+            } catch (IllegalArgumentException e) {
+                enc = -1;
+            }
+            if (enc != w) bad++;
+        }
+        return bad;
+    }
+
+    // ========== Disassembly ==========
+    // Load file: <octal_addr> <octal_word> [decimal count] per line; runs are expanded
+    static void disassembleLoad(Path in, Writer out) throws IOException {
+        String[] t = table();
+        try (BufferedReader r = Files.newBufferedReader(in)) {
+            String line;
+            int lineNo = 0;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                int n = line.length();
+                int p = skipSpaces(line, 0);
+                if (p >= n) continue;
+                int addrEnd = octalEnd(line, p);
+                int q = skipSpaces(line, addrEnd);
+                int wordEnd = octalEnd(line, q);
+                if (addrEnd == p || wordEnd == q) {
+                    throw new IllegalArgumentException("Expected '<octal_addr> <octal_word>' at line " + lineNo);
+                }
+                int addr = parseOctal(line, p, addrEnd);
+                int word = parseOctal(line, q, wordEnd) & 0xFFFF;
+                int c = skipSpaces(line, wordEnd);
+                int count = (c < n) ? Assembler6461.parseDecimal(line.substring(c).trim(), lineNo) : 1;
+                for (int k = 0; k < count; k++) writeLine(out, addr + k, word, t[word]);
+            }
+        }
+    }
+
+    // Raw dump: consecutive big-endian 16-bit words from address 0
+    static void disassembleRaw(Path in, Writer out) throws IOException {
+        String[] t = table();
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(in), 1 << 16)) {
+            int addr = 0;
+            int hi;
+            while ((hi = is.read()) >= 0) {
+                int lo = is.read();
+                if (lo < 0) throw new IllegalArgumentException("Odd byte count in raw dump " + in);
+                int word = (hi << 8) | lo;
+                writeLine(out, addr++, word, t[word]);
+            }
+        }
+    }
+
+    // Same columns as Assembler6461.fmt6, without String.format on the hot path
+    private static void writeLine(Writer out, int addr, int word, String text) throws IOException {
+        char[] buf = new char[14];
+        octal6(buf, 0, addr);
+        buf[6] = ' ';
+        octal6(buf, 7, word);
+        buf[13] = ' ';
+        out.write(buf);
+        out.write(text);
+        out.write('\n');
+    }
+
+    private static void octal6(char[] buf, int at, int v) {
+        v &= 0xFFFF;
+        for (int k = 5; k >= 0; k--) {
+            buf[at + k] = (char) ('0' + (v & 7));
+            v >>>= 3;
+        }
+    }
+
+    private static int skipSpaces(String s, int p) {
+        while (p < s.length() && Character.isWhitespace(s.charAt(p))) p++;
+        return p;
+    }
+
+    private static int octalEnd(String s, int p) {
+        while (p < s.length() && s.charAt(p) >= '0' && s.charAt(p) <= '7') p++;
+        return p;
+    }
+
+    private static int parseOctal(String s, int from, int to) {
+        int v = 0;
+        for (int k = from; k < to; k++) v = (v << 3) | (s.charAt(k) - '0');
+        return v;
+    }
+}
@@ -0,0 +1,266 @@
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * CSCI 6461 Floating Point and Vector Operations
+ *
+ * Format (one 16-bit word):
+ *   bit 15      S  sign of the number
+ *   bits 14..8  E  exponent, sign-magnitude: bit 14 sign, bits 13..8 magnitude (-63..63)
+ *   bits 7..0   M  mantissa, a binary fraction 0.M
+ *   value = (-1)^S * M/256 * 2^E; M = 0 is zero. Results are normalised (M >= 0x80),
+ *   and zero is the all-zero word.
+ *
+ * Arithmetic is exact, then truncated toward zero to 8 mantissa bits. A result exponent
+ * above 63 saturates to the largest magnitude and sets CC overflow; one below -63 gives
+ * zero and sets CC underflow. CNVRT to fixed truncates toward zero and saturates at
+ * -32768..32767 with CC overflow.
+ *
+ * Speed:
+ *  - FADD/FSUB align the mantissas in one long (smaller operand more than 48 bits below
+ *    only matters as a sticky bit), then normalise with a leading-zero count.
+ *  - CNVRT in both directions is a lookup in a 65,536-entry table built once.
+ *  - VADD/VSUB run over the memory array in one pass, in element order (so overlapping
+ *    vectors behave as the element-by-element loop would).
+ * The JDK Vector API is an incubator module in JDK 17 and is not used.
+ *
+ * Results are packed as word | CC bits << 16 (Simulator6461.CC_OVERFLOW / CC_UNDERFLOW).
+ *
+ * Benchmark and cross-check against the naive scalar reference (BigInteger arithmetic,
+ * element-by-element vector loop):
+ *  java Float6461 [--pairs n] [--length n] [--rounds n] [--seed n]
+ */
+public class Float6461 {
+
+    static final int OVERFLOW = Simulator6461.CC_OVERFLOW << 16;
+    static final int UNDERFLOW = Simulator6461.CC_UNDERFLOW << 16;
+    static final int MAX_EXP = 63;
+    static final int LARGEST = 0x3FFF; // +0.11111111 * 2^63
+
+    // Conversion tables: float word -> fixed (packed), signed 16-bit fixed -> float word
+    private static final int[] TO_FIXED = new int[1 << 16];
+    private static final short[] FROM_FIXED = new short[1 << 16];
+
+    static {
+        for (int w = 0; w < (1 << 16); w++) {
+            TO_FIXED[w] = toFixedSlow(w);
+            int n = (short) w;
+            FROM_FIXED[w] = (short) encode(n < 0, Math.abs(n), 0);
+        }
+    }
+
+    // ========== Operations ==========
+    static int add(int a, int b) {
+        int ma = a & 0xFF, mb = b & 0xFF;
+        if (mb == 0) return normalise(a);
+        if (ma == 0) return normalise(b);
+        int ea = exponent(a) - 8, eb = exponent(b) - 8; // value = M * 2^(e - 8)
+        if (ea < eb) {
+            int t = a; a = b; b = t;
+            t = ma; ma = mb; mb = t;
+            t = ea; ea = eb; eb = t;
+        }
+        int d = ea - eb;
+        long big, small;
+        int base;
+        if (d <= 48) {
+            big = (long) ma << d;
+            small = mb;
+            base = eb;
+        } else {
+            big = (long) ma << 40; // the smaller operand is below one unit here: a sticky bit
+            small = 1;
+            base = ea - 40;
+        }
+        long sum = ((a & 0x8000) != 0 ? -big : big) + ((b & 0x8000) != 0 ? -small : small);
+        return encode(sum < 0, Math.abs(sum), base);
+    }
+
+    static int sub(int a, int b) {
+        return add(a, b ^ 0x8000);
+    }
+
+    static int toFixed(int w) {
+        return TO_FIXED[w & 0xFFFF];
+    }
+
+    static int fromFixed(int n) {
+        return FROM_FIXED[n & 0xFFFF] & 0xFFFF;
+    }
+
+    // v1[k] = v1[k] +/- v2[k] for k in 0..n-1, in order; returns the CC bits raised
+    static int vector(int[] mem, int v1, int v2, int n, boolean subtract) {
+        int flip = subtract ? 0x8000 : 0;
+        int status = 0;
+        for (int k = 0; k < n; k++) {
+            int r = add(mem[v1 + k], mem[v2 + k] ^ flip);
+            mem[v1 + k] = r & 0xFFFF;
+            status |= r;
+        }
+        return status >>> 16;
+    }
+
+    // ========== Format ==========
+    static int exponent(int w) {
+        int mag = (w >>> 8) & 0x3F;
+        return (w & 0x4000) != 0 ? -mag : mag;
+    }
+
+    private static int normalise(int w) {
+        int m = w & 0xFF;
+        return (m == 0) ? 0 : encode((w & 0x8000) != 0, m, exponent(w) - 8);
+    }
+
+    // sign * mag * 2^base, truncated to 8 mantissa bits
+    static int encode(boolean negative, long mag, int base) {
+        if (mag == 0) return 0;
+        int shift = 56 - Long.numberOfLeadingZeros(mag); // bit length - 8
+        int m = (int) (shift >= 0 ? mag >>> shift : mag << -shift);
+        return pack(negative, m, base + shift + 8);
+    }
+
+    private static int pack(boolean negative, int m, int e) {
+        int s = negative ? 0x8000 : 0;
+        if (e > MAX_EXP) return s | LARGEST | OVERFLOW;
+        if (e < -MAX_EXP) return UNDERFLOW;
+        int exp = (e < 0) ? 0x40 | -e : e;
+        return s | exp << 8 | m;
+    }
+
+    private static int toFixedSlow(int w) {
+        int m = w & 0xFF, e = exponent(w) - 8;
+        if (m == 0) return 0;
+        long mag = (e >= 0) ? (e > 16 ? Long.MAX_VALUE : (long) m << e) : (e < -8 ? 0 : m >> -e);
+        boolean negative = (w & 0x8000) != 0;
+        long limit = negative ? 32768 : 32767;
+        if (mag > limit) return (negative ? 0x8000 : 0x7FFF) | OVERFLOW;
+        return (int) (negative ? -mag : mag) & 0xFFFF;
+    }
+
+    // ========== Naive Scalar Reference ==========
+    static int referenceAdd(int a, int b) {
+        BigInteger x = exact(a), y = exact(b);
+        int ea = exponent(a) - 8, eb = exponent(b) - 8;
+        int base = Math.min(ea, eb);
+        BigInteger sum = x.shiftLeft(ea - base).add(y.shiftLeft(eb - base));
+        if (sum.signum() == 0) return 0;
+        BigInteger mag = sum.abs();
+        int shift = mag.bitLength() - 8;
+        int m = (shift >= 0 ? mag.shiftRight(shift) : mag.shiftLeft(-shift)).intValue();
+        return pack(sum.signum() < 0, m, base + shift + 8);
+    }
+
+    private static BigInteger exact(int w) {
+        BigInteger m = BigInteger.valueOf(w & 0xFF);
+        return (w & 0x8000) != 0 ? m.negate() : m;
+    }
+
+    static int referenceVector(int[] mem, int v1, int v2, int n, boolean subtract) {
+        int status = 0;
+        for (int k = 0; k < n; k++) {
+            int x = mem[v1 + k], y = mem[v2 + k];
+            int r = referenceAdd(x, subtract ? y ^ 0x8000 : y);
+            mem[v1 + k] = r & 0xFFFF;
+            status |= r >>> 16;
+        }
+        return status;
+    }
+
+    static int referenceToFixed(int w) {
+        double v = (w & 0xFF) / 256.0 * Math.pow(2, exponent(w)) * ((w & 0x8000) != 0 ? -1 : 1);
+        long t = (long) v; // truncates toward zero; M/256 * 2^E is exact in a double
+        if (t > 32767 || t < -32768) {
+            return ((w & 0x8000) != 0 ? 0x8000 : 0x7FFF) | OVERFLOW;
+        }
+        return (int) t & 0xFFFF;
+    }
+
+    static int referenceFromFixed(int n) {
+        if (n == 0) return 0;
+        BigInteger mag = BigInteger.valueOf(Math.abs((long) n));
+        int shift = mag.bitLength() - 8;
+        int m = (shift >= 0 ? mag.shiftRight(shift) : mag.shiftLeft(-shift)).intValue();
+        return pack(n < 0, m, shift + 8);
+    }
+
+    // ========== Benchmark / Cross-check ==========
+    public static void main(String[] args) {
+        int pairs = 2_000_000, length = 4096 - Simulator6461.RESERVED, rounds = 200;
+        long seed = 6461;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pairs": pairs = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "--length": length = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "--rounds": rounds = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "--seed": seed = Long.parseLong(Simulator6461.argValue(args, i++)); break;
+                default: throw new IllegalArgumentException("Unknown option '" + args[i] + "'");
+            }
+        }
+
+        // Bit-exact: every conversion, then random operand pairs
+        int bad = 0;
+        for (int w = 0; w < (1 << 16); w++) {
+            if (toFixed(w) != referenceToFixed(w)) bad++;
+            if (fromFixed(w) != referenceFromFixed((short) w)) bad++;
+        }
+        Random rnd = new Random(seed);
+        int[] xs = new int[pairs], ys = new int[pairs];
+        for (int k = 0; k < pairs; k++) {
+            xs[k] = rnd.nextInt(1 << 16);
+            ys[k] = rnd.nextBoolean() ? rnd.nextInt(1 << 16) : near(xs[k], rnd);
+        }
+        for (int k = 0; k < pairs; k++) {
+            if (add(xs[k], ys[k]) != referenceAdd(xs[k], ys[k])) bad++;
+            if (sub(xs[k], ys[k]) != referenceAdd(xs[k], ys[k] ^ 0x8000)) bad++;
+        }
+        System.out.println("Cross-check: " + (bad == 0 ? "bit-exact" : bad + " MISMATCH(ES)") + " over 131072 conversions and "
+                + pairs + " FADD/FSUB pairs");
+
+        // Vectors: fast and reference over the same memory image
+        int[] fast = new int[Simulator6461.MEM_SIZE], ref = new int[Simulator6461.MEM_SIZE];
+        int half = Math.min(length, (Simulator6461.MEM_SIZE - Simulator6461.RESERVED) / 2);
+        int v1 = Simulator6461.RESERVED, v2 = v1 + half;
+        for (int a = v1; a < v2 + half; a++) fast[a] = ref[a] = rnd.nextInt(1 << 16);
+        long tFast = 0, tRef = 0;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            vector(fast, v1, v2, half, (r & 1) != 0);
+            long t1 = System.nanoTime();
+            referenceVector(ref, v1, v2, half, (r & 1) != 0);
+            tFast += t1 - t0;
+            tRef += System.nanoTime() - t1;
+        }
+        boolean same = Arrays.equals(fast, ref);
+        System.out.println("Vectors:     " + (same ? "bit-exact" : "MISMATCH") + " over " + rounds + " VADD/VSUB of " + half + " elements");
+
+        // Second pass timed, after the first has warmed up the JIT
+        long[] t = new long[5];
+        int sink = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            t[0] = System.nanoTime();
+            for (int k = 0; k < pairs; k++) sink += add(xs[k], ys[k]);
+            t[1] = System.nanoTime();
+            for (int k = 0; k < pairs; k++) sink += referenceAdd(xs[k], ys[k]);
+            t[2] = System.nanoTime();
+            for (int k = 0; k < pairs; k++) sink += toFixed(xs[k]) + fromFixed(ys[k]);
+            t[3] = System.nanoTime();
+            for (int k = 0; k < pairs; k++) sink += referenceToFixed(xs[k]) + referenceFromFixed((short) ys[k]);
+            t[4] = System.nanoTime();
+        }
+        long t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3], t4 = t[4];
+
+        System.out.println(String.format("FADD        fast %7.2f ns/op   reference %7.2f ns/op", (double) (t1 - t0) / pairs, (double) (t2 - t1) / pairs));
+        System.out.println(String.format("CNVRT x2    fast %7.2f ns/op   reference %7.2f ns/op", (double) (t3 - t2) / pairs, (double) (t4 - t3) / pairs));
+        System.out.println(String.format("VADD/VSUB   fast %7.2f ns/elem reference %7.2f ns/elem",
+                (double) tFast / rounds / half, (double) tRef / rounds / half));
+        if (sink == 42) System.out.println(); // keep the loops live
+        if (bad != 0 || !same) System.exit(1);
+    }
+
+    // An operand with an exponent close to w's, so mantissas overlap and cancel
+    private static int near(int w, Random rnd) {
+        int e = Math.max(-MAX_EXP, Math.min(MAX_EXP, exponent(w) + rnd.nextInt(19) - 9));
+        int exp = (e < 0) ? 0x40 | -e : e;
+        return (rnd.nextBoolean() ? 0x8000 : 0) | exp << 8 | rnd.nextInt(256);
+    }
+}
@@ -0,0 +1,771 @@
+import java.util.*;
+
+/**
+ * CSCI 6461 Instruction Set (generated by IsaGen6461 from isa6461.txt; do not edit)
+ *
+ * Straight-line code for every instruction of the description:
+ *  - encode: mnemonic + source operands -> word, with the operand range checks
+ *            (Assembler6461.encodeInstruction)
+ *  - decode: word -> listing text ("LDR     3,0,10"), or null unless the word is exactly
+ *            what encode produces for some operands (Disassembler6461)
+ *  - opcode constants (Simulator6461 dispatch) and the OPC / FMT tables (Assembler6461)
+ * To change the instruction set, edit isa6461.txt and run: java IsaGen6461
+ */
+public class Isa6461 {
+
+    private Isa6461() {
+    }
+
+    // ========== Opcodes ==========
+    // Misc
+    static final int HLT = 000;
+    static final int TRAP = 030;
+    // Load/Store
+    static final int LDR = 001;
+    static final int STR = 002;
+    static final int LDA = 003;
+    static final int LDX = 041;
+    static final int STX = 042;
+    // Transfer (JCC: cc in the R field)
+    static final int JZ = 010;
+    static final int JNE = 011;
+    static final int JCC = 012;
+    static final int JMA = 013;
+    static final int JSR = 014;
+    static final int RFS = 015;
+    static final int SOB = 016;
+    static final int JGE = 017;
+    // Arithmetic/Logical (memory/immediate)
+    static final int AMR = 004;
+    static final int SMR = 005;
+    static final int AIR = 006;
+    static final int SIR = 007;
+    // Reg-to-reg
+    static final int MLT = 070;
+    static final int DVD = 071;
+    static final int TRR = 072;
+    static final int AND = 073;
+    static final int ORR = 074;
+    static final int NOT = 075;
+    // Shift/Rotate: r,count,L/R,A/L
+    static final int SRC = 031;
+    static final int RRC = 032;
+    // I/O
+    static final int IN = 061;
+    static final int OUT = 062;
+    static final int CHK = 063;
+    // Floating point / vector (fr in the R field)
+    static final int FADD = 033;
+    static final int FSUB = 034;
+    static final int VADD = 035;
+    static final int VSUB = 036;
+    static final int CNVRT = 037;
+    static final int LDFR = 050;
+    static final int STFR = 051;
+
+    // ========== Tables ==========
+    static void tables(Map<String, Integer> opc, Map<String, Assembler6461.Fmt> fmt) {
+        opc.put("HLT", HLT);
+        fmt.put("HLT", Assembler6461.Fmt.NONE);
+        opc.put("TRAP", TRAP);
+        fmt.put("TRAP", Assembler6461.Fmt.TRAP);
+        opc.put("LDR", LDR);
+        fmt.put("LDR", Assembler6461.Fmt.LS);
+        opc.put("STR", STR);
+        fmt.put("STR", Assembler6461.Fmt.LS);
+        opc.put("LDA", LDA);
+        fmt.put("LDA", Assembler6461.Fmt.LS);
+        opc.put("LDX", LDX);
+        fmt.put("LDX", Assembler6461.Fmt.XADDR);
+        opc.put("STX", STX);
+        fmt.put("STX", Assembler6461.Fmt.XADDR);
+        opc.put("JZ", JZ);
+        fmt.put("JZ", Assembler6461.Fmt.LS);
+        opc.put("JNE", JNE);
+        fmt.put("JNE", Assembler6461.Fmt.LS);
+        opc.put("JCC", JCC);
+        fmt.put("JCC", Assembler6461.Fmt.LS);
+        opc.put("JMA", JMA);
+        fmt.put("JMA", Assembler6461.Fmt.XADDR);
+        opc.put("JSR", JSR);
+        fmt.put("JSR", Assembler6461.Fmt.XADDR);
+        opc.put("RFS", RFS);
+        fmt.put("RFS", Assembler6461.Fmt.IMM);
+        opc.put("SOB", SOB);
+        fmt.put("SOB", Assembler6461.Fmt.LS);
+        opc.put("JGE", JGE);
+        fmt.put("JGE", Assembler6461.Fmt.LS);
+        opc.put("AMR", AMR);
+        fmt.put("AMR", Assembler6461.Fmt.LS);
+        opc.put("SMR", SMR);
+        fmt.put("SMR", Assembler6461.Fmt.LS);
+        opc.put("AIR", AIR);
+        fmt.put("AIR", Assembler6461.Fmt.RI);
+        opc.put("SIR", SIR);
+        fmt.put("SIR", Assembler6461.Fmt.RI);
+        opc.put("MLT", MLT);
+        fmt.put("MLT", Assembler6461.Fmt.RR);
+        opc.put("DVD", DVD);
+        fmt.put("DVD", Assembler6461.Fmt.RR);
+        opc.put("TRR", TRR);
+        fmt.put("TRR", Assembler6461.Fmt.RR);
+        opc.put("AND", AND);
+        fmt.put("AND", Assembler6461.Fmt.RR);
+        opc.put("ORR", ORR);
+        fmt.put("ORR", Assembler6461.Fmt.RR);
+        opc.put("NOT", NOT);
+        fmt.put("NOT", Assembler6461.Fmt.R);
+        opc.put("SRC", SRC);
+        fmt.put("SRC", Assembler6461.Fmt.SHIFT);
+        opc.put("RRC", RRC);
+        fmt.put("RRC", Assembler6461.Fmt.SHIFT);
+        opc.put("IN", IN);
+        fmt.put("IN", Assembler6461.Fmt.IO);
+        opc.put("OUT", OUT);
+        fmt.put("OUT", Assembler6461.Fmt.IO);
+        opc.put("CHK", CHK);
+        fmt.put("CHK", Assembler6461.Fmt.IO);
+        opc.put("FADD", FADD);
+        fmt.put("FADD", Assembler6461.Fmt.LS);
+        opc.put("FSUB", FSUB);
+        fmt.put("FSUB", Assembler6461.Fmt.LS);
+        opc.put("VADD", VADD);
+        fmt.put("VADD", Assembler6461.Fmt.LS);
+        opc.put("VSUB", VSUB);
+        fmt.put("VSUB", Assembler6461.Fmt.LS);
+        opc.put("CNVRT", CNVRT);
+        fmt.put("CNVRT", Assembler6461.Fmt.LS);
+        opc.put("LDFR", LDFR);
+        fmt.put("LDFR", Assembler6461.Fmt.LS);
+        opc.put("STFR", STFR);
+        fmt.put("STFR", Assembler6461.Fmt.LS);
+    }
+
+    // ========== Encoder ==========
+    static int encode(String op, List<String> ops, Map<String, Integer> symtab, int lineNo) {
+        switch (op) {
+            case "HLT": {
+                arity(op, ops, 0, 0, lineNo);
+                return HLT << 10;
+            }
+            case "TRAP": {
+                arity(op, ops, 1, 1, lineNo);
+                int address = trapcode(op, ops.get(0), symtab, lineNo);
+                return TRAP << 10 | address;
+            }
+            case "LDR": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return LDR << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "STR": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return STR << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "LDA": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return LDA << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "LDX": {
+                arity(op, ops, 2, 3, lineNo);
+                int ix = xreg(op, ops.get(0), symtab, lineNo);
+                int address = addr(op, ops.get(1), symtab, lineNo);
+                int i = (ops.size() > 2) ? indirect(op, ops.get(2), symtab, lineNo) : 0;
+                return LDX << 10 | ix << 6 | i << 5 | address;
+            }
+            case "STX": {
+                arity(op, ops, 2, 3, lineNo);
+                int ix = xreg(op, ops.get(0), symtab, lineNo);
+                int address = addr(op, ops.get(1), symtab, lineNo);
+                int i = (ops.size() > 2) ? indirect(op, ops.get(2), symtab, lineNo) : 0;
+                return STX << 10 | ix << 6 | i << 5 | address;
+            }
+            case "JZ": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return JZ << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "JNE": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return JNE << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "JCC": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return JCC << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "JMA": {
+                arity(op, ops, 2, 3, lineNo);
+                int ix = xreg(op, ops.get(0), symtab, lineNo);
+                int address = addr(op, ops.get(1), symtab, lineNo);
+                int i = (ops.size() > 2) ? indirect(op, ops.get(2), symtab, lineNo) : 0;
+                return JMA << 10 | ix << 6 | i << 5 | address;
+            }
+            case "JSR": {
+                arity(op, ops, 2, 3, lineNo);
+                int ix = xreg(op, ops.get(0), symtab, lineNo);
+                int address = addr(op, ops.get(1), symtab, lineNo);
+                int i = (ops.size() > 2) ? indirect(op, ops.get(2), symtab, lineNo) : 0;
+                return JSR << 10 | ix << 6 | i << 5 | address;
+            }
+            case "RFS": {
+                arity(op, ops, 1, 1, lineNo);
+                int address = immed(op, ops.get(0), symtab, lineNo);
+                return RFS << 10 | address;
+            }
+            case "SOB": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return SOB << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "JGE": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return JGE << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "AMR": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return AMR << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "SMR": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return SMR << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "AIR": {
+                arity(op, ops, 2, 2, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int address = immed(op, ops.get(1), symtab, lineNo);
+                return AIR << 10 | r << 8 | address;
+            }
+            case "SIR": {
+                arity(op, ops, 2, 2, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int address = immed(op, ops.get(1), symtab, lineNo);
+                return SIR << 10 | r << 8 | address;
+            }
+            case "MLT": {
+                arity(op, ops, 2, 2, lineNo);
+                int rx = pair(op, ops.get(0), symtab, lineNo);
+                int ry = reg(op, ops.get(1), symtab, lineNo);
+                return MLT << 10 | rx << 8 | ry << 6;
+            }
+            case "DVD": {
+                arity(op, ops, 2, 2, lineNo);
+                int rx = pair(op, ops.get(0), symtab, lineNo);
+                int ry = reg(op, ops.get(1), symtab, lineNo);
+                return DVD << 10 | rx << 8 | ry << 6;
+            }
+            case "TRR": {
+                arity(op, ops, 2, 2, lineNo);
+                int rx = reg(op, ops.get(0), symtab, lineNo);
+                int ry = reg(op, ops.get(1), symtab, lineNo);
+                return TRR << 10 | rx << 8 | ry << 6;
+            }
+            case "AND": {
+                arity(op, ops, 2, 2, lineNo);
+                int rx = reg(op, ops.get(0), symtab, lineNo);
+                int ry = reg(op, ops.get(1), symtab, lineNo);
+                return AND << 10 | rx << 8 | ry << 6;
+            }
+            case "ORR": {
+                arity(op, ops, 2, 2, lineNo);
+                int rx = reg(op, ops.get(0), symtab, lineNo);
+                int ry = reg(op, ops.get(1), symtab, lineNo);
+                return ORR << 10 | rx << 8 | ry << 6;
+            }
+            case "NOT": {
+                arity(op, ops, 1, 1, lineNo);
+                int rx = reg(op, ops.get(0), symtab, lineNo);
+                return NOT << 10 | rx << 8;
+            }
+            case "SRC": {
+                arity(op, ops, 4, 4, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int count = count(op, ops.get(1), symtab, lineNo);
+                int lr = bit(op, ops.get(2), symtab, lineNo);
+                int al = bit(op, ops.get(3), symtab, lineNo);
+                return SRC << 10 | r << 8 | al << 7 | lr << 6 | count << 2;
+            }
+            case "RRC": {
+                arity(op, ops, 4, 4, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int count = count(op, ops.get(1), symtab, lineNo);
+                int lr = bit(op, ops.get(2), symtab, lineNo);
+                int al = bit(op, ops.get(3), symtab, lineNo);
+                return RRC << 10 | r << 8 | al << 7 | lr << 6 | count << 2;
+            }
+            case "IN": {
+                arity(op, ops, 2, 2, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int devid = devid(op, ops.get(1), symtab, lineNo);
+                return IN << 10 | r << 8 | devid;
+            }
+            case "OUT": {
+                arity(op, ops, 2, 2, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int devid = devid(op, ops.get(1), symtab, lineNo);
+                return OUT << 10 | r << 8 | devid;
+            }
+            case "CHK": {
+                arity(op, ops, 2, 2, lineNo);
+                int r = reg(op, ops.get(0), symtab, lineNo);
+                int devid = devid(op, ops.get(1), symtab, lineNo);
+                return CHK << 10 | r << 8 | devid;
+            }
+            case "FADD": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return FADD << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "FSUB": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return FSUB << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "VADD": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return VADD << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "VSUB": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return VSUB << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "CNVRT": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return CNVRT << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "LDFR": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return LDFR << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            case "STFR": {
+                arity(op, ops, 3, 4, lineNo);
+                int r = first(op, ops.get(0), symtab, lineNo);
+                int ix = ix(op, ops.get(1), symtab, lineNo);
+                int address = addr(op, ops.get(2), symtab, lineNo);
+                int i = (ops.size() > 3) ? indirect(op, ops.get(3), symtab, lineNo) : 0;
+                return STFR << 10 | r << 8 | ix << 6 | i << 5 | address;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown opcode '" + op + "' at line " + lineNo);
+        }
+    }
+
+    // ========== Decoder ==========
+    static String decode(int w) {
+        switch (w >>> 10) {
+            case HLT: {
+                if ((w & 0x3FF) != 0) return null;
+                return "HLT";
+            }
+            case TRAP: {
+                if ((w & 0x3E0) != 0) return null;
+                int address = w & 0x1F;
+                if (address > 15) return null;
+                return "TRAP    " + address;
+            }
+            case LDR: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "LDR     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case STR: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "STR     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case LDA: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "LDA     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case LDX: {
+                if ((w & 0x300) != 0) return null;
+                int ix = (w >>> 6) & 0x3;
+                if (ix < 1) return null;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "LDX     " + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case STX: {
+                if ((w & 0x300) != 0) return null;
+                int ix = (w >>> 6) & 0x3;
+                if (ix < 1) return null;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "STX     " + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case JZ: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "JZ      " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case JNE: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "JNE     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case JCC: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "JCC     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case JMA: {
+                if ((w & 0x300) != 0) return null;
+                int ix = (w >>> 6) & 0x3;
+                if (ix < 1) return null;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "JMA     " + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case JSR: {
+                if ((w & 0x300) != 0) return null;
+                int ix = (w >>> 6) & 0x3;
+                if (ix < 1) return null;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "JSR     " + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case RFS: {
+                if ((w & 0x3E0) != 0) return null;
+                int address = w & 0x1F;
+                return "RFS     " + address;
+            }
+            case SOB: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "SOB     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case JGE: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "JGE     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case AMR: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "AMR     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case SMR: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "SMR     " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case AIR: {
+                if ((w & 0xE0) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int address = w & 0x1F;
+                return "AIR     " + r + "," + address;
+            }
+            case SIR: {
+                if ((w & 0xE0) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int address = w & 0x1F;
+                return "SIR     " + r + "," + address;
+            }
+            case MLT: {
+                if ((w & 0x3F) != 0) return null;
+                int rx = (w >>> 8) & 0x3;
+                if (rx > 2 || rx % 2 != 0) return null;
+                int ry = (w >>> 6) & 0x3;
+                return "MLT     " + rx + "," + ry;
+            }
+            case DVD: {
+                if ((w & 0x3F) != 0) return null;
+                int rx = (w >>> 8) & 0x3;
+                if (rx > 2 || rx % 2 != 0) return null;
+                int ry = (w >>> 6) & 0x3;
+                return "DVD     " + rx + "," + ry;
+            }
+            case TRR: {
+                if ((w & 0x3F) != 0) return null;
+                int rx = (w >>> 8) & 0x3;
+                int ry = (w >>> 6) & 0x3;
+                return "TRR     " + rx + "," + ry;
+            }
+            case AND: {
+                if ((w & 0x3F) != 0) return null;
+                int rx = (w >>> 8) & 0x3;
+                int ry = (w >>> 6) & 0x3;
+                return "AND     " + rx + "," + ry;
+            }
+            case ORR: {
+                if ((w & 0x3F) != 0) return null;
+                int rx = (w >>> 8) & 0x3;
+                int ry = (w >>> 6) & 0x3;
+                return "ORR     " + rx + "," + ry;
+            }
+            case NOT: {
+                if ((w & 0xFF) != 0) return null;
+                int rx = (w >>> 8) & 0x3;
+                return "NOT     " + rx;
+            }
+            case SRC: {
+                if ((w & 0x3) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int count = (w >>> 2) & 0xF;
+                int lr = (w >>> 6) & 0x1;
+                int al = (w >>> 7) & 0x1;
+                return "SRC     " + r + "," + count + "," + lr + "," + al;
+            }
+            case RRC: {
+                if ((w & 0x3) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int count = (w >>> 2) & 0xF;
+                int lr = (w >>> 6) & 0x1;
+                int al = (w >>> 7) & 0x1;
+                return "RRC     " + r + "," + count + "," + lr + "," + al;
+            }
+            case IN: {
+                if ((w & 0xE0) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int devid = w & 0x1F;
+                return "IN      " + r + "," + devid;
+            }
+            case OUT: {
+                if ((w & 0xE0) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int devid = w & 0x1F;
+                return "OUT     " + r + "," + devid;
+            }
+            case CHK: {
+                if ((w & 0xE0) != 0) return null;
+                int r = (w >>> 8) & 0x3;
+                int devid = w & 0x1F;
+                return "CHK     " + r + "," + devid;
+            }
+            case FADD: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "FADD    " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case FSUB: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "FSUB    " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case VADD: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "VADD    " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case VSUB: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "VSUB    " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case CNVRT: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "CNVRT   " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case LDFR: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "LDFR    " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            case STFR: {
+                int r = (w >>> 8) & 0x3;
+                int ix = (w >>> 6) & 0x3;
+                int address = w & 0x1F;
+                int i = (w >>> 5) & 0x1;
+                return "STFR    " + r + "," + ix + "," + address + (i != 0 ? "," + i : "");
+            }
+            default:
+                return null;
+        }
+    }
+
+    // ========== Operand Kinds ==========
+    private static void arity(String op, List<String> ops, int min, int max, int lineNo) {
+        if (ops.size() < min || ops.size() > max) {
+            throw new IllegalArgumentException(op + " expects " + min + (max > min ? " or " + max : "") + " operands at line " + lineNo);
+        }
+    }
+
+    private static int reg(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 3) {
+            throw new IllegalArgumentException("Register must be 0..3 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int pair(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 2 || v % 2 != 0) {
+            throw new IllegalArgumentException(op + " rx must be 0 or 2 (the first of a register pair) at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int first(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 3) {
+            throw new IllegalArgumentException(op + " first operand must be 0..3 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int ix(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 3) {
+            throw new IllegalArgumentException("IX must be 0..3 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int xreg(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 1 || v > 3) {
+            throw new IllegalArgumentException(op + " x must be 1..3 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int addr(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 31) {
+            throw new IllegalArgumentException("Address field must be 0..31 (5 bits) at line " + lineNo + " but got " + v + ". Use indexing + base address scheme if you need full memory.");
+        }
+        return v;
+    }
+
+    private static int indirect(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        if (s.equalsIgnoreCase("I")) return 1;
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 1) {
+            throw new IllegalArgumentException("Indirect flag must be 0/1 or I at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int bit(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 1) {
+            throw new IllegalArgumentException("Expected 0 or 1 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int trapcode(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 15) {
+            throw new IllegalArgumentException("TRAP code must be 0..15 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int immed(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 31) {
+            throw new IllegalArgumentException(op + " immed must be 0..31 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int count(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 15) {
+            throw new IllegalArgumentException(op + " count must be 0..15 at line " + lineNo);
+        }
+        return v;
+    }
+
+    private static int devid(String op, String s, Map<String, Integer> symtab, int lineNo) {
+        int v = Assembler6461.evalValue(s, symtab, lineNo);
+        if (v < 0 || v > 31) {
+            throw new IllegalArgumentException(op + " devid must be 0..31 at line " + lineNo);
+        }
+        return v;
+    }
+}
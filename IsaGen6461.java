@@ -0,0 +1,361 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * CSCI 6461 Instruction Set Generator
+ *
+ * Reads the declarative instruction set (isa6461.txt: field layouts, operand kinds, and one
+ * line per instruction with its mnemonic, octal opcode, operand syntax and operands) and
+ * writes Isa6461.java with specialised straight-line code per instruction:
+ *  - encode(op, operands): arity and range checks, then one constant-folded shift/or word
+ *  - decode(word): field extraction and the checks that make it the exact inverse of encode
+ *  - opcode constants and the Assembler6461 OPC / FMT tables
+ * Assembler6461, Disassembler6461 and Simulator6461 use only the generated class, so adding
+ * an instruction is one line in isa6461.txt plus its semantics in Simulator6461.step.
+ * Isa6461.java is committed; regenerate it after editing the description. The generator
+ * uses no other class of the project, so it also runs when Isa6461.java is missing or stale.
+ *
+ * Usage:
+ *  java IsaGen6461 [isa6461.txt] [-o Isa6461.java] [--check]
+ *  --check writes nothing and exits 1 if the output file is not what would be generated.
+ */
+public class IsaGen6461 {
+
+    static final Set<String> RESERVED = Set.of("op", "ops", "symtab", "lineNo", "w");
+
+    // ========== Model ==========
+    static class Field {
+        final String name;
+        final int hi, lo;
+        Field(String name, int hi, int lo) { this.name = name; this.hi = hi; this.lo = lo; }
+        int width() { return hi - lo + 1; }
+        int max() { return (1 << width()) - 1; }
+        int mask() { return max() << lo; }
+    }
+
+    static class Layout {
+        final String name;
+        final Map<String, Field> fields = new LinkedHashMap<>();
+        Layout(String name) { this.name = name; }
+    }
+
+    static class Kind {
+        final String name;
+        final int lo, hi, step; // lo, lo + step, ... up to hi
+        final String word;   // alternative spelling, or null
+        final int wordValue;
+        final String message;
+        Kind(String name, int lo, int hi, int step, String word, int wordValue, String message) {
+            this.name = name; this.lo = lo; this.hi = hi; this.step = step; this.word = word; this.wordValue = wordValue; this.message = message;
+        }
+        boolean allows(int v) { return v >= lo && v <= hi && (v - lo) % step == 0; }
+    }
+
+    static class Operand {
+        final Field field;
+        final Kind kind;
+        final boolean optional;
+        Operand(Field field, Kind kind, boolean optional) { this.field = field; this.kind = kind; this.optional = optional; }
+    }
+
+    static class Instruction {
+        final String mnemonic, syntax, group;
+        final int opcode;
+        final Layout layout;
+        final List<Operand> operands = new ArrayList<>();
+        Instruction(String mnemonic, int opcode, String syntax, Layout layout, String group) {
+            this.mnemonic = mnemonic; this.opcode = opcode; this.syntax = syntax; this.layout = layout; this.group = group;
+        }
+        int required() {
+            return (int) operands.stream().filter(o -> !o.optional).count();
+        }
+    }
+
+    static class Isa {
+        final Map<String, Layout> layouts = new LinkedHashMap<>();
+        final Map<String, Kind> kinds = new LinkedHashMap<>();
+        final List<Instruction> instructions = new ArrayList<>();
+    }
+
+    // ========== Entry ==========
+    public static void main(String[] args) throws Exception {
+        Path in = Paths.get("isa6461.txt");
+        Path out = Paths.get("Isa6461.java");
+        boolean check = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    if (i + 1 >= args.length) throw new IllegalArgumentException("-o expects a file name");
+                    out = Paths.get(args[++i]);
+                    break;
+                case "--check": check = true; break;
+                default: in = Paths.get(args[i]);
+            }
+        }
+
+        String code = generate(parse(Files.readAllLines(in)), in.getFileName().toString());
+        if (check) {
+            boolean same = Files.exists(out) && Files.readString(out).equals(code);
+            System.out.println(same ? out + " is up to date." : out + " is out of date: run java IsaGen6461");
+            if (!same) System.exit(1);
+            return;
+        }
+        Files.writeString(out, code);
+        System.out.println("Generated:   " + out.toAbsolutePath());
+    }
+
+    // ========== Parsing ==========
+    private static final Pattern LAYOUT = Pattern.compile("layout\\s+(\\w+)\\s+(.*)");
+    private static final Pattern FIELD = Pattern.compile("(\\w+):(\\d+)(?:\\.\\.(\\d+))?");
+    private static final Pattern KIND = Pattern.compile("kind\\s+(\\w+)\\s+(\\d+)\\.\\.(\\d+)(?:/(\\d+))?(?:\\s+(\\w+)=(\\d+))?\\s+\"(.*)\"");
+    private static final Pattern OPERAND = Pattern.compile("(\\[)?(\\w+)=(\\w+)(\\])?");
+    private static final Pattern SECTION = Pattern.compile("# =+ (.*?) =+");
+
+    static Isa parse(List<String> lines) {
+        Isa isa = new Isa();
+        Set<Integer> opcodes = new HashSet<>();
+        boolean inInstructions = false;
+        String group = null;
+
+        for (int n = 1; n <= lines.size(); n++) {
+            String line = lines.get(n - 1).trim();
+            if (line.isEmpty()) continue;
+            if (line.startsWith("#")) {
+                Matcher s = SECTION.matcher(line);
+                if (s.matches()) inInstructions = s.group(1).equals("Instructions");
+                else if (inInstructions) group = line.substring(1).trim();
+                continue;
+            }
+
+            Matcher m;
+            if ((m = LAYOUT.matcher(line)).matches()) {
+                Layout l = new Layout(m.group(1));
+                long used = 0;
+                for (String f : m.group(2).trim().split("\\s+")) {
+                    Matcher fm = FIELD.matcher(f);
+                    if (!fm.matches()) throw new IllegalArgumentException("Bad field '" + f + "' at line " + n);
+                    int hi = Integer.parseInt(fm.group(2));
+                    int lo = (fm.group(3) != null) ? Integer.parseInt(fm.group(3)) : hi;
+                    if (lo > hi || hi > 9) throw new IllegalArgumentException("Field '" + f + "' must lie in bits 9..0 at line " + n);
+                    Field field = new Field(fm.group(1), hi, lo);
+                    if ((used & field.mask()) != 0) throw new IllegalArgumentException("Field '" + f + "' overlaps another at line " + n);
+                    if (RESERVED.contains(field.name) || l.fields.put(field.name, field) != null) {
+                        throw new IllegalArgumentException("Bad or duplicate field name '" + field.name + "' at line " + n);
+                    }
+                    used |= field.mask();
+                }
+                if (isa.layouts.put(l.name, l) != null) throw new IllegalArgumentException("Duplicate layout '" + l.name + "' at line " + n);
+                continue;
+            }
+            if ((m = KIND.matcher(line)).matches()) {
+                int lo = Integer.parseInt(m.group(2)), hi = Integer.parseInt(m.group(3));
+                int step = (m.group(4) != null) ? Integer.parseInt(m.group(4)) : 1;
+                if (lo > hi || step < 1) throw new IllegalArgumentException("Empty range for kind '" + m.group(1) + "' at line " + n);
+                Kind k = new Kind(m.group(1), lo, hi, step, m.group(5), m.group(6) != null ? Integer.parseInt(m.group(6)) : 0, m.group(7));
+                if (k.word != null && !k.allows(k.wordValue)) {
+                    throw new IllegalArgumentException(k.word + "=" + k.wordValue + " is out of range at line " + n);
+                }
+                if (isa.kinds.put(k.name, k) != null) throw new IllegalArgumentException("Duplicate kind '" + k.name + "' at line " + n);
+                continue;
+            }
+
+            // <mnemonic> <octal opcode> <syntax> <layout> <field>=<kind>...
+            String[] t = line.split("\\s+");
+            if (t.length < 4 || !t[0].matches("[A-Z][A-Z0-9]*") || !t[1].matches("[0-7]+")) {
+                throw new IllegalArgumentException("Expected '<mnemonic> <octal opcode> <syntax> <layout> <operands>' at line " + n);
+            }
+            int opcode = Integer.parseInt(t[1], 8);
+            if (opcode > 63 || !opcodes.add(opcode)) throw new IllegalArgumentException("Opcode " + t[1] + " is out of range or taken at line " + n);
+            Layout layout = isa.layouts.get(t[3]);
+            if (layout == null) throw new IllegalArgumentException("Unknown layout '" + t[3] + "' at line " + n);
+            for (Instruction other : isa.instructions) {
+                if (other.mnemonic.equals(t[0])) throw new IllegalArgumentException("Duplicate mnemonic '" + t[0] + "' at line " + n);
+            }
+            Instruction ins = new Instruction(t[0], opcode, t[2], layout, group);
+            group = null;
+
+            Set<String> seen = new HashSet<>();
+            for (int k = 4; k < t.length; k++) {
+                Matcher om = OPERAND.matcher(t[k]);
+                if (!om.matches() || (om.group(1) == null) != (om.group(4) == null)) {
+                    throw new IllegalArgumentException("Bad operand '" + t[k] + "' at line " + n);
+                }
+                boolean optional = om.group(1) != null;
+                if (optional && (k != t.length - 1 || k == 4)) {
+                    throw new IllegalArgumentException("Only a last operand after a required one can be optional at line " + n);
+                }
+                Field f = layout.fields.get(om.group(2));
+                Kind kind = isa.kinds.get(om.group(3));
+                if (f == null || !seen.add(f.name)) throw new IllegalArgumentException("Unknown or repeated field '" + om.group(2) + "' at line " + n);
+                if (kind == null) throw new IllegalArgumentException("Unknown kind '" + om.group(3) + "' at line " + n);
+                if (kind.hi > f.max()) throw new IllegalArgumentException("Kind '" + kind.name + "' does not fit field '" + f.name + "' at line " + n);
+                ins.operands.add(new Operand(f, kind, optional));
+            }
+            isa.instructions.add(ins);
+        }
+        return isa;
+    }
+
+    // ========== Generation ==========
+    static String generate(Isa isa, String source) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("import java.util.*;\n\n");
+        sb.append("/**\n");
+        sb.append(" * CSCI 6461 Instruction Set (generated by IsaGen6461 from ").append(source).append("; do not edit)\n");
+        sb.append(" *\n");
+        sb.append(" * Straight-line code for every instruction of the description:\n");
+        sb.append(" *  - encode: mnemonic + source operands -> word, with the operand range checks\n");
+        sb.append(" *            (Assembler6461.encodeInstruction)\n");
+        sb.append(" *  - decode: word -> listing text (\"LDR     3,0,10\"), or null unless the word is exactly\n");
+        sb.append(" *            what encode produces for some operands (Disassembler6461)\n");
+        sb.append(" *  - opcode constants (Simulator6461 dispatch) and the OPC / FMT tables (Assembler6461)\n");
+        sb.append(" * To change the instruction set, edit ").append(source).append(" and run: java IsaGen6461\n");
+        sb.append(" */\n");
+        sb.append("public class Isa6461 {\n\n");
+        sb.append("    private Isa6461() {\n    }\n\n");
+
+        sb.append("    // ========== Opcodes ==========\n");
+        for (Instruction ins : isa.instructions) {
+            if (ins.group != null) sb.append("    // ").append(ins.group).append('\n');
+            sb.append("    static final int ").append(ins.mnemonic).append(" = ").append(octal(ins.opcode)).append(";\n");
+        }
+
+        sb.append("\n    // ========== Tables ==========\n");
+        sb.append("    static void tables(Map<String, Integer> opc, Map<String, Assembler6461.Fmt> fmt) {\n");
+        for (Instruction ins : isa.instructions) {
+            sb.append("        opc.put(\"").append(ins.mnemonic).append("\", ").append(ins.mnemonic).append(");\n");
+            sb.append("        fmt.put(\"").append(ins.mnemonic).append("\", Assembler6461.Fmt.").append(ins.syntax).append(");\n");
+        }
+        sb.append("    }\n");
+
+        sb.append("\n    // ========== Encoder ==========\n");
+        sb.append("    static int encode(String op, List<String> ops, Map<String, Integer> symtab, int lineNo) {\n");
+        sb.append("        switch (op) {\n");
+        for (Instruction ins : isa.instructions) encoder(sb, ins);
+        sb.append("            default:\n");
+        sb.append("                throw new IllegalArgumentException(\"Unknown opcode '\" + op + \"' at line \" + lineNo);\n");
+        sb.append("        }\n    }\n");
+
+        sb.append("\n    // ========== Decoder ==========\n");
+        sb.append("    static String decode(int w) {\n");
+        sb.append("        switch (w >>> 10) {\n");
+        for (Instruction ins : isa.instructions) decoder(sb, ins);
+        sb.append("            default:\n");
+        sb.append("                return null;\n");
+        sb.append("        }\n    }\n");
+
+        sb.append("\n    // ========== Operand Kinds ==========\n");
+        sb.append("    private static void arity(String op, List<String> ops, int min, int max, int lineNo) {\n");
+        sb.append("        if (ops.size() < min || ops.size() > max) {\n");
+        sb.append("            throw new IllegalArgumentException(op + \" expects \" + min + (max > min ? \" or \" + max : \"\") + \" operands at line \" + lineNo);\n");
+        sb.append("        }\n    }\n");
+        for (Kind k : isa.kinds.values()) kind(sb, k);
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void encoder(StringBuilder sb, Instruction ins) {
+        int n = ins.required(), max = ins.operands.size();
+        sb.append("            case \"").append(ins.mnemonic).append("\": {\n");
+        sb.append("                arity(op, ops, ").append(n).append(", ").append(max).append(", lineNo);\n");
+        StringBuilder word = new StringBuilder(ins.mnemonic + " << 10");
+        for (int k = 0; k < max; k++) {
+            Operand o = ins.operands.get(k);
+            String eval = o.kind.name + "(op, ops.get(" + k + "), symtab, lineNo)";
+            sb.append("                int ").append(o.field.name).append(" = ")
+                    .append(o.optional ? "(ops.size() > " + k + ") ? " + eval + " : 0" : eval).append(";\n");
+        }
+        for (Field f : ins.layout.fields.values()) {
+            for (Operand o : ins.operands) {
+                if (o.field != f) continue;
+                word.append(" | ").append(f.name);
+                if (f.lo > 0) word.append(" << ").append(f.lo);
+            }
+        }
+        sb.append("                return ").append(word).append(";\n");
+        sb.append("            }\n");
+    }
+
+    private static void decoder(StringBuilder sb, Instruction ins) {
+        sb.append("            case ").append(ins.mnemonic).append(": {\n");
+        int unused = 0x3FF;
+        for (Operand o : ins.operands) unused &= ~o.field.mask();
+        if (unused != 0) sb.append("                if ((w & ").append(hex(unused)).append(") != 0) return null;\n");
+
+        StringBuilder text = new StringBuilder("\"" + ins.mnemonic);
+        for (int k = 0; k < ins.operands.size(); k++) {
+            Operand o = ins.operands.get(k);
+            Field f = o.field;
+            String value = (f.lo > 0) ? "(w >>> " + f.lo + ") & " + hex(f.max()) : "w & " + hex(f.max());
+            sb.append("                int ").append(f.name).append(" = ").append(value).append(";\n");
+            List<String> out = new ArrayList<>();
+            if (o.kind.lo > 0) out.add(f.name + " < " + o.kind.lo);
+            if (o.kind.hi < f.max()) out.add(f.name + " > " + o.kind.hi);
+            if (o.kind.step > 1) out.add(offset(f.name, o.kind) + " % " + o.kind.step + " != 0");
+            if (!out.isEmpty()) sb.append("                if (").append(String.join(" || ", out)).append(") return null;\n");
+            if (k == 0) {
+                for (int pad = ins.mnemonic.length(); pad < 8; pad++) text.append(' ');
+                text.append("\" + ").append(f.name);
+            } else if (o.optional) {
+                text.append(" + (").append(f.name).append(" != 0 ? \",\" + ").append(f.name).append(" : \"\")");
+            } else {
+                text.append(" + \",\" + ").append(f.name);
+            }
+        }
+        if (ins.operands.isEmpty()) text.append('"');
+        sb.append("                return ").append(text).append(";\n");
+        sb.append("            }\n");
+    }
+
+    private static void kind(StringBuilder sb, Kind k) {
+        sb.append("\n    private static int ").append(k.name)
+                .append("(String op, String s, Map<String, Integer> symtab, int lineNo) {\n");
+        if (k.word != null) {
+            sb.append("        if (s.equalsIgnoreCase(\"").append(k.word).append("\")) return ").append(k.wordValue).append(";\n");
+        }
+        sb.append("        int v = Assembler6461.evalValue(s, symtab, lineNo);\n");
+        sb.append("        if (v < ").append(k.lo).append(" || v > ").append(k.hi);
+        if (k.step > 1) sb.append(" || ").append(offset("v", k)).append(" % ").append(k.step).append(" != 0");
+        sb.append(") {\n");
+        sb.append("            throw new IllegalArgumentException(").append(message(k.message)).append(");\n");
+        sb.append("        }\n");
+        sb.append("        return v;\n");
+        sb.append("    }\n");
+    }
+
+    // v, or (v - lo) when the steps start above 0
+    private static String offset(String v, Kind k) {
+        return (k.lo == 0) ? v : "(" + v + " - " + k.lo + ")";
+    }
+
+    // "{op} immed must be 0..31" -> op + " immed must be 0..31 at line " + lineNo
+    static String message(String template) {
+        String t = template.contains("{line}") ? template : template + " at line {line}";
+        StringBuilder out = new StringBuilder();
+        Matcher m = Pattern.compile("\\{(op|value|line)\\}").matcher(t);
+        int at = 0;
+        while (m.find()) {
+            if (m.start() > at) append(out, "\"" + t.substring(at, m.start()).replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+            append(out, m.group(1).equals("op") ? "op" : m.group(1).equals("value") ? "v" : "lineNo");
+            at = m.end();
+        }
+        if (at < t.length()) append(out, "\"" + t.substring(at).replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        return out.toString();
+    }
+
+    private static void append(StringBuilder out, String term) {
+        if (out.length() > 0) out.append(" + ");
+        out.append(term);
+    }
+
+    private static String octal(int v) {
+        return String.format("0%02o", v);
+    }
+
+    private static String hex(int v) {
+        return String.format("0x%X", v);
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * CSCI 6461 Linker
+ *
+ * Links separately assembled modules into one load file.
+ *
+ * Inputs: any mix of
+ *  - .src  sources: assembled in object mode (Assembler6461.assembleObject), concurrently;
+ *          each object is cached next to its source (x.src -> x.obj) and reused while it
+ *          is newer than the source and every file it INCLUDEs
+ *  - .obj  objects written by Assembler6461 --obj or a previous link
+ *
+ * Linking:
+ *  1) Exported (GLOBAL) symbols form one global table; duplicates are an error.
+ *  2) Section garbage collection: absolute (LOC) sections, the section holding the entry
+ *     symbol (-e), or else the first section of the first module, are roots. Sections not
+ *     reachable from a root through relocations are dropped.
+ *  3) Relocatable sections are placed first-fit from the base address (-b, default 6),
+ *     around absolute sections and each other, in command-line order.
+ *  4) Relocations are applied (symbol address + addend): ADDR5 must land in 0..31, WORD16
+ *     takes the full address.
+ *
+ * Output: load file (<octal_addr(6)> <octal_word(6)>), sorted by address.
+ *
+ * Usage:
+ *  java Linker6461 [-o output.load] [-e entry] [-b base] [-j threads] module.src|module.obj ...
+ */
+public class Linker6461 {
+
+    // ========== Entry ==========
+    public static void main(String[] args) throws Exception {
+        Path out = Paths.get("output.load");
+        String entry = null;
+        int base = Assembler6461.FIRST_FREE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o": out = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "-e": entry = Simulator6461.argValue(args, i++); break;
+                case "-b": base = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "-j": threads = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                default: inputs.add(Paths.get(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) throw new IllegalArgumentException("No input modules");
+
+        List<Assembler6461.ObjectModule> modules = loadModules(inputs, Math.max(1, threads));
+        List<String> report = new ArrayList<>();
+        TreeMap<Integer, Integer> image = link(modules, entry, base, report);
+        writeLoad(image, out);
+
+        for (String s : report) System.out.println(s);
+        System.out.println("Done.");
+        System.out.println("Load file:   " + out.toAbsolutePath());
+    }
+
+    // ========== Module Loading (parallel, cached) ==========
+    static List<Assembler6461.ObjectModule> loadModules(List<Path> inputs, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size()));
+        try {
+            List<Future<Assembler6461.ObjectModule>> futures = new ArrayList<>();
+            for (Path p : inputs) futures.add(pool.submit(() -> loadModule(p)));
+
+            List<Assembler6461.ObjectModule> modules = new ArrayList<>();
+            for (int k = 0; k < futures.size(); k++) {
+                try {
+                    modules.add(futures.get(k).get());
+                } catch (ExecutionException e) {
+                    Throwable c = e.getCause();
+                    if (c instanceof IllegalArgumentException) {
+                        throw new IllegalArgumentException(inputs.get(k) + ": " + c.getMessage(), c);
+                    }
+                    throw e;
+                }
+            }
+            return modules;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static Assembler6461.ObjectModule loadModule(Path p) throws IOException {
+        String file = p.getFileName().toString();
+        if (!file.endsWith(".src")) return Assembler6461.readObject(p);
+
+        String name = file.substring(0, file.length() - ".src".length());
+        Path obj = p.resolveSibling(name + ".obj");
+        if (Files.exists(obj) && !olderThan(obj, p)) {
+            Assembler6461.ObjectModule cached = Assembler6461.readObject(obj);
+            boolean fresh = true;
+            for (String inc : cached.includes) {
+                Path dep = Paths.get(inc);
+                if (!Files.exists(dep) || olderThan(obj, dep)) fresh = false;
+            }
+            if (fresh) return cached;
+        }
+        Assembler6461.ObjectModule m = Assembler6461.assembleObject(name, Files.readAllLines(p), p);
+        Assembler6461.writeObject(m, obj);
+        return m;
+    }
+
+    private static boolean olderThan(Path obj, Path src) throws IOException {
+        return Files.getLastModifiedTime(obj).compareTo(Files.getLastModifiedTime(src)) < 0;
+    }
+
+    // ========== Linking ==========
+    static TreeMap<Integer, Integer> link(List<Assembler6461.ObjectModule> modules, String entry,
+                                          int base, List<String> report) {
+        // Global symbols: name -> defining module
+        Map<String, Assembler6461.ObjectModule> globals = new HashMap<>();
+        for (Assembler6461.ObjectModule m : modules) {
+            for (Assembler6461.ObjSymbol s : m.symbols.values()) {
+                if (!s.global) continue;
+                Assembler6461.ObjectModule prev = globals.put(s.name, m);
+                if (prev != null) {
+                    throw new IllegalArgumentException("Symbol '" + s.name + "' exported by both " + prev.name + " and " + m.name);
+                }
+            }
+        }
+
+        // Roots and reachability over relocations
+        Map<Assembler6461.ObjSection, Assembler6461.ObjectModule> owner = new IdentityHashMap<>();
+        Deque<Assembler6461.ObjSection> work = new ArrayDeque<>();
+        Set<Assembler6461.ObjSection> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Assembler6461.ObjectModule m : modules) {
+            for (Assembler6461.ObjSection s : m.sections) {
+                owner.put(s, m);
+                if (s.absolute) work.add(s);
+            }
+        }
+        if (entry != null) {
+            Assembler6461.ObjectModule m = globals.get(entry);
+            if (m == null) throw new IllegalArgumentException("Entry symbol '" + entry + "' is not exported by any module");
+            work.add(m.section(m.symbols.get(entry).section));
+        } else {
+            for (Assembler6461.ObjectModule m : modules) {
+                if (!m.sections.isEmpty()) {
+                    work.add(m.sections.get(0));
+                    break;
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            Assembler6461.ObjSection s = work.poll();
+            if (!live.add(s)) continue;
+            Assembler6461.ObjectModule m = owner.get(s);
+            for (Assembler6461.ObjReloc r : s.relocs) work.add(target(m, r.symbol, globals).section);
+        }
+
+        // Placement: absolute sections fixed, relocatable ones first-fit from base
+        BitSet used = new BitSet(1 << 16);
+        Map<Assembler6461.ObjSection, Integer> placed = new IdentityHashMap<>();
+        for (Assembler6461.ObjectModule m : modules) {
+            for (Assembler6461.ObjSection s : m.sections) {
+                if (!s.absolute || !live.contains(s)) continue;
+                claim(used, s.base, s.words.size(), m.name + ":" + s.name);
+                placed.put(s, s.base);
+            }
+        }
+        for (Assembler6461.ObjectModule m : modules) {
+            for (Assembler6461.ObjSection s : m.sections) {
+                if (s.absolute) continue;
+                if (!live.contains(s)) {
+                    report.add("Dropped unreferenced section " + m.name + ":" + s.name + " (" + s.words.size() + " words)");
+                    continue;
+                }
+                int at = firstFit(used, base, s.words.size());
+                if (at < 0) throw new IllegalArgumentException("No room for section " + m.name + ":" + s.name);
+                claim(used, at, s.words.size(), m.name + ":" + s.name);
+                placed.put(s, at);
+                report.add("Placed " + m.name + ":" + s.name + " at " + Assembler6461.fmt6(at)
+                        + " (" + s.words.size() + " words)");
+            }
+        }
+
+        // Relocate and emit
+        TreeMap<Integer, Integer> image = new TreeMap<>();
+        for (Assembler6461.ObjSection s : placed.keySet()) {
+            Assembler6461.ObjectModule m = owner.get(s);
+            int at = placed.get(s);
+            int[] words = new int[s.words.size()];
+            for (int k = 0; k < words.length; k++) words[k] = s.words.get(k);
+            for (Assembler6461.ObjReloc r : s.relocs) {
+                Target t = target(m, r.symbol, globals);
+                int value = placed.get(t.section) + t.offset + r.addend;
+                if (r.addr5) {
+                    if (value < 0 || value > 31) {
+                        throw new IllegalArgumentException("Symbol '" + r.symbol + "' links to " + value + " but " + m.name + ":"
+                                + s.name + "+" + r.offset + " has a 5-bit address field; place it lower (-b) or use a Data pointer");
+                    }
+                    words[r.offset] = (words[r.offset] & ~0x1F) | value;
+                } else {
+                    words[r.offset] = value & 0xFFFF;
+                }
+            }
+            for (int k = 0; k < words.length; k++) image.put(at + k, words[k]);
+        }
+        return image;
+    }
+
+    static class Target {
+        final Assembler6461.ObjSection section;
+        final int offset;
+        Target(Assembler6461.ObjSection section, int offset) { this.section = section; this.offset = offset; }
+    }
+
+    // A module's own labels win over globals; externs must resolve to a global
+    static Target target(Assembler6461.ObjectModule m, String symbol,
+                         Map<String, Assembler6461.ObjectModule> globals) {
+        Assembler6461.ObjSymbol s = m.symbols.get(symbol);
+        Assembler6461.ObjectModule def = m;
+        if (s == null) {
+            def = globals.get(symbol);
+            if (def == null) throw new IllegalArgumentException("Undefined symbol '" + symbol + "' referenced from " + m.name);
+            s = def.symbols.get(symbol);
+        }
+        Assembler6461.ObjSection sec = def.section(s.section);
+        if (sec == null) throw new IllegalArgumentException("Symbol '" + symbol + "' in " + def.name + " names unknown section " + s.section);
+        return new Target(sec, s.offset);
+    }
+
+    private static void claim(BitSet used, int at, int size, String what) {
+        if (at + size > (1 << 16)) throw new IllegalArgumentException("Section " + what + " runs past address 177777");
+        int clash = used.nextSetBit(at);
+        if (clash >= 0 && clash < at + size) {
+            throw new IllegalArgumentException("Section " + what + " overlaps another section at " + Assembler6461.fmt6(clash));
+        }
+        used.set(at, at + size);
+    }
+
+    private static int firstFit(BitSet used, int from, int size) {
+        int at = used.nextClearBit(from);
+        while (at + size <= (1 << 16)) {
+            int clash = used.nextSetBit(at);
+            if (clash < 0 || clash >= at + size) return at;
+            at = used.nextClearBit(clash);
+        }
+        return -1;
+    }
+
+    static void writeLoad(TreeMap<Integer, Integer> image, Path out) throws IOException {
+        try (BufferedWriter load = Files.newBufferedWriter(out)) {
+            for (Map.Entry<Integer, Integer> e : image.entrySet()) {
+                load.write(Assembler6461.fmt6(e.getKey()) + " " + Assembler6461.fmt6(e.getValue()));
+                load.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Profile Merger (hot-address heatmap)
+ *
+ * Merges the simulator's per-address counters back into the assembler listing.
+ *
+ * Inputs:
+ *  - source.src   original source (listing text, ops, labels; INCLUDE / MACRO are expanded again)
+ *  - output.map   assembler source map: <octal_addr(6)> <source line> <words> [|<text>]
+ *  - output.load  assembled words (plain or --compact-load)
+ *  - output.prof  Simulator6461 --profile: <octal_addr(6)> <executions> <reads> <writes>
+ * Output (default output.hot.lst):
+ *  <octal_addr(6)> <octal_word(6)> <executions> <% of executions> <data accesses> <original line>
+ *  followed by the top-N hottest basic blocks, ranked by executions x estimated cycles.
+ *
+ * Usage:
+ *  java Profile6461 [--source f] [--map f] [--load f] [--profile f] [-o f] [--top n]
+ */
+public class Profile6461 {
+
+    public static void main(String[] args) throws Exception {
+        Path src = Paths.get("source.src");
+        Path mapIn = Paths.get("output.map");
+        Path loadIn = Paths.get("output.load");
+        Path profIn = Paths.get("output.prof");
+        Path out = Paths.get("output.hot.lst");
+        int top = 10;
+
+        for (int i = 0; i < args.length; i++) {
+            String opt = args[i];
+            String v = Simulator6461.argValue(args, i++);
+            switch (opt) {
+                case "--source": src = Paths.get(v); break;
+                case "--map": mapIn = Paths.get(v); break;
+                case "--load": loadIn = Paths.get(v); break;
+                case "--profile": profIn = Paths.get(v); break;
+                case "-o": out = Paths.get(v); break;
+                case "--top": top = Assembler6461.parseDecimal(v, 0); break;
+                default: throw new IllegalArgumentException("Unknown option '" + opt + "'");
+            }
+        }
+
+        List<Assembler6461.ParsedLine> lines = Assembler6461.preprocess(
+                Assembler6461.parseLines(Files.readAllLines(src)), src);
+        merge(lines, Assembler6461.readSourceMap(mapIn),
+                Assembler6461.readLoadFile(loadIn), Simulator6461.readProfile(profIn), out, top);
+        System.out.println("Hot listing: " + out.toAbsolutePath());
+    }
+
+    // lines: the preprocessed source. Map entries are matched to it in order, as in
+    // Relister6461: each source entry takes the next listed line with its line number.
+    static void merge(List<Assembler6461.ParsedLine> lines,
+                      List<Assembler6461.MapEntry> map,
+                      Map<Integer, Integer> image,
+                      Map<Integer, long[]> profile,
+                      Path out, int top) throws IOException {
+        Assembler6461.CostTable costs = Assembler6461.CostTable.defaults();
+        Assembler6461.BlockSummary blocks = new Assembler6461.BlockSummary();
+        long[] none = new long[3];
+
+        long total = 0;
+        for (Assembler6461.MapEntry e : map) {
+            for (int k = 0; k < e.words; k++) total += profile.getOrDefault(e.addr + k, none)[0];
+        }
+
+        try (BufferedWriter lst = Files.newBufferedWriter(out)) {
+            int next = 0; // first source line not yet consumed
+            for (Assembler6461.MapEntry e : map) {
+                Assembler6461.ParsedLine pl;
+                if (e.text != null) {
+                    pl = Assembler6461.syntheticLine(e); // literal / pointer pools carry their own text
+                } else {
+                    int at = next;
+                    while (at < lines.size() && !(lines.get(at).lineNo == e.lineNo && Relister6461.listed(lines.get(at)))) at++;
+                    if (at == lines.size()) {
+                        throw new IllegalArgumentException("Source map line " + e.lineNo
+                                + " has no matching source line (source changed since assembly?)");
+                    }
+
+                    // Label-only lines have no map entry; they label the next listed address
+                    for (; next < at; next++) {
+                        Assembler6461.ParsedLine skipped = lines.get(next);
+                        if (skipped.label != null && skipped.op == null) blocks.label(skipped.label, e.addr);
+                    }
+                    pl = lines.get(next++);
+                }
+
+                if (e.words == 0) {
+                    lst.write(String.format("%s ------ %10s %7s %8s %s", Assembler6461.fmt6(e.addr), "", "", "", pl.original));
+                    lst.newLine();
+                    blocks.end();
+                    if (pl.label != null) blocks.label(pl.label, e.addr);
+                    continue;
+                }
+
+                // Block data (SPACE/FILL/WORDS): one row per word, source text on the first
+                if (pl.label != null) blocks.label(pl.label, e.addr);
+                if (e.words > 1 || Assembler6461.isBlockData(pl.op)) {
+                    for (int k = 0; k < e.words; k++) {
+                        Integer w = image.get(e.addr + k);
+                        long[] c = profile.getOrDefault(e.addr + k, none);
+                        lst.write(String.format("%s %s %10d %6.2f%% %8d %s", Assembler6461.fmt6(e.addr + k),
+                                w == null ? "------" : Assembler6461.fmt6(w), c[0],
+                                (total == 0) ? 0.0 : 100.0 * c[0] / total, c[1] + c[2], k == 0 ? pl.original : "").stripTrailing());
+                        lst.newLine();
+                    }
+                    blocks.end();
+                    continue;
+                }
+
+                Integer word = image.get(e.addr);
+                if (word == null) throw new IllegalArgumentException("No load record for address " + Assembler6461.fmt6(e.addr));
+                long[] c = profile.getOrDefault(e.addr, none);
+                double pct = (total == 0) ? 0.0 : 100.0 * c[0] / total;
+                lst.write(String.format("%s %s %10d %6.2f%% %8d %s", Assembler6461.fmt6(e.addr), Assembler6461.fmt6(word),
+                        c[0], pct, c[1] + c[2], pl.original));
+                lst.newLine();
+
+                if (pl.op == null || pl.op.equals("DATA")) {
+                    blocks.end();
+                } else {
+                    Assembler6461.Estimate est = Assembler6461.Estimate.of(pl.op, word, costs);
+                    blocks.add(e.addr, pl.op, c[0] * est.cycles, c[0] * est.memRefs);
+                }
+            }
+
+            List<Assembler6461.BlockSummary.Block> hot = new ArrayList<>(blocks.blocks);
+            hot.removeIf(b -> b.cycles == 0);
+            hot.sort((a, b) -> Long.compare(b.cycles, a.cycles));
+            if (hot.size() > top) hot = hot.subList(0, top);
+            Assembler6461.BlockSummary.write(lst,
+                    "Hottest basic blocks (executions x estimated cycles, top " + top + "):", hot);
+        }
+    }
+}
@@ -0,0 +1,969 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Regression Programs
+ *
+ * Small programs pinned to the results they must give: at least one that works and one that
+ * must be rejected per feature, plus one per bug a program once exposed.
+ *
+ * A case writes its source files into a scratch directory and runs its steps there in order.
+ * Each step is one tool (Assembler6461, Linker6461, Simulator6461, Relister6461, ...) in a
+ * child JVM with the step's arguments, exactly as from the command line, and either
+ *  - must fail and print the expected message, or
+ *  - must succeed, print the expected lines, and leave files that contain the expected text
+ *    or are identical to each other.
+ * If the case names registers, output.load is then loaded into Simulator6461, run from the
+ * case's start address until HLT, and the registers must hold the expected values.
+ *
+ * Registers: R0..R3, X1..X3, CC, MFR (expected values are decimal).
+ *
+ * Usage:
+ *  java Regress6461 [case name]...   (default: all cases; exits 1 if any fails)
+ */
+public class Regress6461 {
+
+    static final long MAX_STEPS = 1_000_000;
+
+    // ========== Cases ==========
+    static List<Case> cases() {
+        List<Case> cs = new ArrayList<>();
+
+        // A relaxed operand on a labelled line must not rely on an X loaded before the label:
+        // the second pass arrives at L through SOB with X1 = Other.
+        cs.add(new Case("relax-label-after-ldx", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Base:   Data    100",
+                        "Other:  Data    98",
+                        "Two:    Data    2",
+                        "        LOC     40",
+                        "Start:  LDX     1,Base",
+                        "        LDR     3,0,Two",
+                        "L:      LDR     0,0,Far",
+                        "        LDX     1,Other",
+                        "        SOB     3,0,L",
+                        "        HLT",
+                        "        LOC     98",
+                        "        Data    9",
+                        "        Data    0",
+                        "Far:    Data    7")
+                .prints("LDR 0,0,Far -> LDR 0,0,@Far,1")
+                .start(40).expect("R0", 7).expect("R3", 0));
+
+        // Object modules relocate only address operands and Data words; a relocatable or
+        // EXTERN label in any other operand must be rejected, not encoded as its offset.
+        cs.add(new Case("obj-reloc-immediate", "Assembler6461", "--obj")
+                .source("source.src",
+                        "        SECTION Code",
+                        "Start:  AIR     0,Tab",
+                        "        HLT",
+                        "Tab:    Data    1")
+                .fails("AIR operand 'Tab' depends on a relocatable or EXTERN label"));
+        cs.add(new Case("obj-reloc-extern-devid", "Assembler6461", "--obj")
+                .source("source.src",
+                        "        EXTERN  Port",
+                        "        SECTION Code",
+                        "Start:  OUT     0,Port",
+                        "        HLT")
+                .fails("OUT operand 'Port' depends on a relocatable or EXTERN label"));
+
+        // A 5-bit relocation below address 0 (label-n near the start of memory) must be
+        // rejected, not sign-extended into the opcode bits.
+        cs.add(new Case("link-addr5-negative", "Linker6461", "-e", "Start", "main.src", "-o", "output.load")
+                .source("main.src",
+                        "        GLOBAL  Start",
+                        "        SECTION Table",
+                        "Tab:    Data    1",
+                        "        SECTION Code",
+                        "Start:  LDR     0,0,Tab-10",
+                        "        HLT")
+                .fails("Symbol 'Tab' links to -4"));
+
+        // The optimizer must still remove instructions in a segment that ends in Data words
+        // (symbolic references follow the move) ...
+        cs.add(new Case("optimize-code-then-data", "Assembler6461", "--optimize")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,A",
+                        "        AIR     0,0",
+                        "        AMR     0,0,B",
+                        "        JZ      1,0,Next",
+                        "Next:   STR     0,0,Sum",
+                        "        LDR     2,0,Sum",
+                        "        HLT",
+                        "A:      Data    5",
+                        "B:      Data    2",
+                        "Sum:    Data    0")
+                .prints("Optimizer removed 2 instruction(s).")
+                .expect("R0", 7).expect("R2", 7));
+        // ... but keep, and report, one whose removal would change a label+n distance.
+        cs.add(new Case("optimize-kept-offset", "Assembler6461", "--optimize")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     1,0,Start+3",
+                        "        AIR     1,0",
+                        "        HLT",
+                        "        Data    300")
+                .prints("Optimizer removed 0 instruction(s).")
+                .prints("AIR     1,0  (AIR with immediate 0; kept: would change the distance in 'Start+3' at line 2)")
+                .expect("R1", 300));
+
+        // ... and keep one that would shift the word a numeric indexed operand reaches
+        // (LDR 1,2,6 reads 6+X2 = 12, two words past the AIR).
+        cs.add(new Case("optimize-kept-index-base", "Assembler6461", "--optimize")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDX     2,Six",
+                        "        LDR     1,2,6",
+                        "        AIR     1,0",
+                        "        HLT",
+                        "Six:    Data    6",
+                        "        Data    300",
+                        "        Data    400")
+                .prints("Optimizer removed 0 instruction(s).")
+                .prints("kept: would move words at or after 000006, reached through 'LDR 1,2,6' at line 3)")
+                .expect("R1", 400));
+
+        // MLT: the full signed 32-bit product lands in rx, rx+1 and never sets OVERFLOW,
+        // even for the extremes (-32768 * -32768 = 2^30, 300 * -200 = -60000).
+        cs.add(new Case("mlt-register-pair", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,A",
+                        "        LDR     1,0,A",
+                        "        MLT     0,1",
+                        "        LDR     2,0,B",
+                        "        LDR     3,0,C",
+                        "        MLT     2,3",
+                        "        HLT",
+                        "A:      Data    32768",
+                        "B:      Data    300",
+                        "C:      Data    65336")
+                .expect("R0", 16384).expect("R1", 0).expect("R2", 65535).expect("R3", 5536).expect("CC", 0));
+
+        // MLT/DVD rx names the first register of a pair: 1 and 3 are rejected by the assembler,
+        // left as Data by the disassembler, and fault in the simulator instead of wrapping to R0.
+        cs.add(new Case("mlt-odd-rx-rejected", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  DVD     3,0",
+                        "        HLT")
+                .fails("DVD rx must be 0 or 2 (the first of a register pair) at line 2"));
+        cs.add(new Case("mlt-odd-rx-faults", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     1,0,A",
+                        "        Data    57600", // MLT with rx=1
+                        "        HLT",
+                        "A:      Data    3")
+                .run("Disassembler6461", "output.load").prints("Data    57600")
+                .expect("MFR", 4).expect("R1", 3).expect("R2", 0));
+
+        // Profile6461 must expand MACRO / INCLUDE like the assembler before matching the map,
+        // and reject a source that no longer matches it.
+        cs.add(new Case("profile-macro-include")
+                .source("inc.src", "Two:    Data    2")
+                .source("source.src",
+                        "INC2:   MACRO   r",
+                        "        AMR     r,0,Two",
+                        "        ENDM",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,Zero",
+                        "        INC2    0",
+                        "        INC2    0",
+                        "        HLT",
+                        "Zero:   Data    0",
+                        "        INCLUDE inc.src")
+                .source("other.src",
+                        "        LOC     6",
+                        "Start:  HLT")
+                .run("Assembler6461")
+                .run("Simulator6461", "--profile", "output.prof").prints("R0=000004")
+                .run("Profile6461")
+                .file("output.hot.lst", "000010 010013          1  25.00%        0         AMR     0,0,Two")
+                .file("output.hot.lst", "000013 000002          0   0.00%        2 Two:    Data    2")
+                .run("Profile6461", "--source", "other.src")
+                .fails("Source map line 4 has no matching source line"));
+
+        // Literals are read-only: stores and transfers may not name one, and leftover literals
+        // need a free low word instead of silently landing out of reach after the program.
+        cs.add(new Case("literal-store-rejected", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,=5",
+                        "        STR     0,0,=5",
+                        "        HLT")
+                .fails("STR cannot use literal '=5' (literals are read-only constants for loads and arithmetic) at line 3"));
+        cs.add(new Case("literal-jump-rejected", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  JMA     0,=7",
+                        "        HLT")
+                .fails("JMA cannot use literal '=7'"));
+        cs.add(new Case("literal-pool-full", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Full:   SPACE   26",
+                        "        LOC     40",
+                        "Start:  LDR     0,0,=5",
+                        "        HLT")
+                .fails("Literal pool: no free word left in 6..31 for =5 at line 4"));
+
+        // A checkpoint carries the devices along: the resumed run reads on from the saved input
+        // offset, keeps the output written so far and gets the queued words back, so its output
+        // file matches one from an uninterrupted run. A restore without those devices is rejected.
+        String[] copy = {
+                "        LOC     6",
+                "Start:  IN      0,2",
+                "        JZ      0,0,Done",
+                "        OUT     0,3",
+                "        OUT     0,4",
+                "        JZ      2,0,Start",
+                "Done:   IN      1,4",
+                "        HLT" };
+        cs.add(new Case("checkpoint-devices", "Assembler6461")
+                .source("source.src", copy)
+                .source("in.txt", "checkpointed copy")
+                .run("Simulator6461", "--device", "2=in:in.txt", "--device", "3=out:whole.txt", "--device", "4=queue")
+                .prints("R1=000143")
+                .run("Simulator6461", "--device", "2=in:in.txt", "--device", "3=out:part.txt", "--device", "4=queue",
+                        "--checkpoint", "run.ckpt", "--checkpoint-every", "7", "--max-steps", "23")
+                .prints("Step limit reached.")
+                .run("Simulator6461", "--device", "2=in:in.txt", "--device", "3=out:part.txt", "--device", "4=queue",
+                        "--restore", "run.ckpt")
+                .prints("R1=000143")
+                .same("whole.txt", "part.txt"));
+        cs.add(new Case("checkpoint-devices-missing", "Assembler6461")
+                .source("source.src", copy)
+                .source("in.txt", "checkpointed copy")
+                .run("Simulator6461", "--device", "2=in:in.txt", "--device", "3=out:part.txt", "--device", "4=queue",
+                        "--checkpoint", "run.ckpt", "--checkpoint-every", "7", "--max-steps", "23")
+                .run("Simulator6461", "--device", "2=in:in.txt", "--device", "4=queue", "--restore", "run.ckpt")
+                .fails("Device 3 was an output file at the checkpoint but is a stream or unmapped now"));
+
+        // Trace entries carry FR0/FR1, so the decoder shows a floating-point load as a change.
+        cs.add(new Case("trace-float-registers", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDFR    1,0,A",
+                        "        HLT",
+                        "A:      Data    1234")
+                .run("Simulator6461", "--trace", "output.trace")
+                .run("Trace6461", "output.trace").prints("FR1=002322"));
+        cs.add(new Case("trace-not-a-dump")
+                .source("old.trace", "not a trace dump")
+                .run("Trace6461", "old.trace").fails("old.trace is not a trace dump"));
+
+        // Disassembler6461 turns every loaded word back into listing text (a run-length record
+        // into one line per word, words that are no instruction into Data); a malformed load
+        // line or a raw dump with half a word is rejected.
+        cs.add(new Case("disassemble-load", "Assembler6461", "--compact-load")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     3,0,10",
+                        "        AIR     3,7",
+                        "        HLT",
+                        "        FILL    2,65535")
+                .run("Disassembler6461", "output.load", "-o", "dis.lst")
+                .file("dis.lst", "000006 003412 LDR     3,0,10")
+                .file("dis.lst", "000007 015407 AIR     3,7")
+                .file("dis.lst", "000012 177777 Data    65535")
+                .run("Disassembler6461", "--verify").prints("Round trip OK for all 65536 words."));
+        cs.add(new Case("disassemble-bad-load")
+                .source("output.load", "000006 001412", "000007 oops")
+                .run("Disassembler6461", "output.load").fails("Expected '<octal_addr> <octal_word>' at line 2"));
+        cs.add(new Case("disassemble-odd-raw")
+                .source("dump.bin", "AB")
+                .run("Disassembler6461", "--raw", "dump.bin").fails("Odd byte count in raw dump dump.bin"));
+
+        // --cycles prices each line (base cost by format or mnemonic, plus memory references and
+        // index adds) and sums the basic blocks; a cost table overrides entries and rejects keys
+        // that are neither a mnemonic nor a format.
+        String[] priced = {
+                "        LOC     6",
+                "Start:  LDR     3,0,A",
+                "        AMR     3,1,A",
+                "        MLT     0,2",
+                "        HLT",
+                "A:      Data    5" };
+        cs.add(new Case("cycles-listing", "Assembler6461", "--cycles")
+                .source("source.src", priced)
+                .file("output.lst", "000006 003412    4 rd:10              Start:  LDR     3,0,A")
+                .file("output.lst", "000007 011512    5 rd:X1+10                   AMR     3,1,A")
+                .file("output.lst", "Start                000006      4      14       2")
+                .source("costs.txt", "MLT=9", "mem=3")
+                .run("Assembler6461", "--cost-table", "costs.txt")
+                .file("output.lst", "000010 160200    9                            MLT     0,2")
+                .file("output.lst", "Start                000006      4      21       2"));
+        cs.add(new Case("cycles-bad-cost-table")
+                .source("source.src", priced)
+                .source("costs.txt", "FOO=1")
+                .run("Assembler6461", "--cost-table", "costs.txt").fails("Unknown cost table key 'FOO' in costs.txt"));
+
+        // Profile6461 puts the simulator's counters next to the listing lines and ranks the
+        // basic blocks by executions x cycles; a load file that lacks a mapped address is an error.
+        String[] counted = {
+                "        LOC     6",
+                "Start:  LDR     1,0,N",
+                "Loop:   AIR     0,2",
+                "        SOB     1,0,Loop",
+                "        HLT",
+                "N:      Data    5" };
+        cs.add(new Case("profile-hot-listing", "Assembler6461")
+                .source("source.src", counted)
+                .run("Simulator6461", "--profile", "output.prof").prints("steps=12")
+                .run("Profile6461", "--top", "2")
+                .file("output.hot.lst", "000007 014002          5  41.67%        0 Loop:   AIR     0,2")
+                .file("output.hot.lst", "000012 000005          0   0.00%        1 N:      Data    5")
+                .file("output.hot.lst", "Loop                 000007      2      15       0"));
+        cs.add(new Case("profile-missing-load-record", "Assembler6461")
+                .source("source.src", counted)
+                .source("part.load", "000006 002412")
+                .run("Simulator6461", "--profile", "output.prof")
+                .run("Profile6461", "--load", "part.load").fails("No load record for address 000007"));
+
+        // A reload of a register that already holds the word is removed and reported; an error
+        // after removed lines still names the line it is on in the source.
+        cs.add(new Case("optimize-redundant-load", "Assembler6461", "--optimize")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,A",
+                        "        LDR     0,0,A",
+                        "        AMR     0,0,A",
+                        "        HLT",
+                        "A:      Data    5")
+                .prints("Optimizer removed 1 instruction(s).")
+                .prints("line 3: LDR     0,0,A  (R0 already holds c(10))")
+                .file("output.lst", "000007 010011         AMR     0,0,A")
+                .expect("R0", 10));
+        cs.add(new Case("optimize-error-line", "Assembler6461", "--optimize")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,A",
+                        "        LDR     0,0,A",
+                        "        AIR     0,0",
+                        "        AMR     0,0,Nowhere",
+                        "        HLT",
+                        "A:      Data    5")
+                .fails("Unknown label 'Nowhere' at line 5"));
+
+        // A direct operand above 31 goes through a pointer word placed in free low memory; an
+        // indexed one cannot be relaxed and, like any operand under --no-relax, is out of range.
+        String[] far = {
+                "        LOC     6",
+                "Start:  LDR     0,0,Far",
+                "        HLT",
+                "        LOC     100",
+                "Far:    Data    42" };
+        cs.add(new Case("relax-pointer", "Assembler6461")
+                .source("source.src", far)
+                .prints("line 2: LDR 0,0,Far -> LDR 0,0,@Far,1  (pointer @Far)")
+                .file("output.lst", "000037 000144 @Far:     Data    Far")
+                .expect("R0", 42));
+        cs.add(new Case("relax-indexed-rejected", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,1,Far",
+                        "        HLT",
+                        "        LOC     100",
+                        "Far:    Data    42")
+                .fails("Address field must be 0..31 (5 bits) at line 2 but got 100."));
+        cs.add(new Case("relax-disabled", "Assembler6461", "--no-relax")
+                .source("source.src", far)
+                .fails("Address field must be 0..31 (5 bits) at line 2 but got 100."));
+
+        // Equal literals share one pool word, whatever expression spells the value.
+        cs.add(new Case("literal-pool-shared", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,=5",
+                        "        AMR     0,0,=5",
+                        "        AMR     0,0,=2+3",
+                        "        AMR     0,0,=7",
+                        "        HLT")
+                .file("output.lst", "000010 010037         AMR     0,0,=2+3")
+                .file("output.lst", "Literal pool (low memory): 2 word(s) at 000036..000037")
+                .expect("R0", 22));
+
+        // Linking: sections reached from the entry are placed first-fit from the base, the rest
+        // are dropped; a .src input is assembled once into its .obj, and an up-to-date .obj is
+        // used as is (here a hand-written one with Five = 9). Duplicate and missing exports fail.
+        String[] mainModule = {
+                "        GLOBAL  Start",
+                "        EXTERN  Five",
+                "        SECTION Code",
+                "Start:  LDR     0,0,Ptr",
+                "        LDR     1,0,Ptr,1",
+                "        HLT",
+                "Ptr:    Data    Five" };
+        String[] libModule = {
+                "        GLOBAL  Five",
+                "        GLOBAL  Spare",
+                "        SECTION Consts",
+                "Five:   Data    5",
+                "        SECTION Unused",
+                "Spare:  Data    7",
+                "        Data    8" };
+        cs.add(new Case("link-gc-placement", "Linker6461", "-e", "Start", "main.src", "lib.src", "-o", "output.load")
+                .source("main.src", mainModule)
+                .source("lib.src", libModule)
+                .prints("Placed main:Code at 000006 (4 words)")
+                .prints("Placed lib:Consts at 000012 (1 words)")
+                .prints("Dropped unreferenced section lib:Unused (2 words)")
+                .file("lib.obj", "SECTION Consts REL 000000 1")
+                .run("Linker6461", "-e", "Start", "main.obj", "lib.obj", "-o", "again.load")
+                .same("output.load", "again.load")
+                .start(6).expect("R0", 10).expect("R1", 5));
+        cs.add(new Case("link-object-cache", "Linker6461", "-e", "Start", "main.src", "lib.src", "-o", "output.load")
+                .source("main.src", mainModule)
+                .source("lib.src", libModule)
+                .source("lib.obj",
+                        "MODULE lib",
+                        "SECTION Consts REL 000000 1",
+                        "000000 000011",
+                        "SYMBOL Five Consts 000000 GLOBAL",
+                        "END")
+                .start(6).expect("R1", 9));
+        cs.add(new Case("link-duplicate-export", "Linker6461", "-e", "Start", "main.src", "lib.src", "other.src")
+                .source("main.src", mainModule)
+                .source("lib.src", libModule)
+                .source("other.src",
+                        "        GLOBAL  Five",
+                        "        SECTION Data",
+                        "Five:   Data    6")
+                .fails("Symbol 'Five' exported by both lib and other"));
+        cs.add(new Case("link-undefined", "Linker6461", "-e", "Start", "main.src")
+                .source("main.src", mainModule)
+                .fails("Undefined symbol 'Five' referenced from main"));
+
+        // Preprocessor: an INCLUDEd file defines a macro, each expansion line is listed with its
+        // origin; a recursive INCLUDE, a wrong argument count and a MACRO without ENDM are errors.
+        String[] twice = {
+                "Add2:   MACRO   r,a",
+                "        AMR     r,0,a",
+                "        AMR     r,0,a",
+                "        ENDM" };
+        cs.add(new Case("preprocess-include-macro", "Assembler6461")
+                .source("macros.src", twice)
+                .source("source.src",
+                        "        INCLUDE macros.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,Three",
+                        "        Add2    0,Three",
+                        "        HLT",
+                        "Three:  Data    3")
+                .file("output.lst", "000010 010012         AMR     0,0,Three    [macro ADD2, macros.src:3]")
+                .expect("R0", 9));
+        cs.add(new Case("preprocess-recursive-include", "Assembler6461")
+                .source("self.src", "        INCLUDE self.src")
+                .source("source.src",
+                        "        LOC     6",
+                        "        INCLUDE self.src")
+                .fails("Recursive INCLUDE of self.src at line 2 (self.src:1)"));
+        cs.add(new Case("preprocess-macro-arguments", "Assembler6461")
+                .source("macros.src", twice)
+                .source("source.src",
+                        "        INCLUDE macros.src",
+                        "        LOC     6",
+                        "Start:  Add2    0")
+                .fails("Macro ADD2 expects 2 arguments at line 3"));
+        cs.add(new Case("preprocess-missing-endm", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Open:   MACRO",
+                        "        HLT")
+                .fails("MACRO OPEN has no ENDM"));
+
+        // Block data: FILL repeats a value, SPACE reserves words without loading them, WORDS lists
+        // values; --compact-load writes the FILL as one run-length record. Counts out of range
+        // and a record running past memory are rejected.
+        cs.add(new Case("block-data-compact", "Assembler6461", "--compact-load")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,Tab",
+                        "        AMR     0,0,Tab+4",
+                        "        AMR     0,0,Last",
+                        "        HLT",
+                        "Tab:    FILL    3,7",
+                        "        SPACE   2",
+                        "        WORDS   1,2,3",
+                        "Last:   Data    100")
+                .file("output.load", "000012 000007 3")
+                .file("output.lst", "000015 ------         SPACE   2    [2 words 000015..000016]")
+                .file("output.lst", "000017 000001         WORDS   1,2,3    [3 words 000017..000021]")
+                .expect("R0", 107));
+        cs.add(new Case("block-data-count", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "        SPACE   70000")
+                .fails("SPACE count must be 0..65535 at line 2"));
+        cs.add(new Case("block-data-run-past-memory", "Simulator6461", "bad.load")
+                .source("bad.load", "177776 000001 3")
+                .fails("Load record at 65534 runs past address 177777 in bad.load"));
+
+        // EQU binds a name to an expression (forward references resolve at the end of pass 1)
+        // and operands fold expressions; circular EQUs and division by zero are errors.
+        cs.add(new Case("equ-expressions", "Assembler6461")
+                .source("source.src",
+                        "Count:  EQU     Size/2+1",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,Tab+Count-1",
+                        "        AIR     0,Count*2",
+                        "        HLT",
+                        "Size:   EQU     (End-Tab)*2",
+                        "Tab:    WORDS   10,20,30",
+                        "End:    Data    1<<4|3")
+                .file("output.lst", "000006 002014 Start:  LDR     0,0,Tab+Count-1")
+                .file("output.lst", "000014 000023 End:    Data    1<<4|3")
+                .expect("R0", 27));
+        cs.add(new Case("equ-circular", "Assembler6461")
+                .source("source.src",
+                        "A:      EQU     B+1",
+                        "B:      EQU     A-1",
+                        "        LOC     6",
+                        "Start:  HLT")
+                .fails("Unknown label 'B' at line 1"));
+        cs.add(new Case("equ-divide-by-zero", "Assembler6461")
+                .source("source.src",
+                        "Z:      EQU     0",
+                        "        LOC     6",
+                        "Start:  AIR     0,4/Z")
+                .fails("Division by zero at line 3"));
+
+        // --check assembles without writing output and reports every error with its line and
+        // column, not just the first.
+        cs.add(new Case("check-clean", "Assembler6461", "--check")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,A",
+                        "        HLT",
+                        "A:      Data    5")
+                .prints("No errors."));
+        cs.add(new Case("check-all-errors", "Assembler6461", "--check")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     4,0,A",
+                        "        AMR     0,0,Nowhere",
+                        "        FOO     1",
+                        "        HLT",
+                        "A:      Data    5")
+                .fails(String.join(System.lineSeparator(),
+                        "source.src:2:1: LDR first operand must be 0..3",
+                        "source.src:3:21: Unknown label 'Nowhere'",
+                        "source.src:4:9: Unknown opcode 'FOO'",
+                        "3 error(s).")));
+
+        // A word written twice is a warning (the later line wins, as at load time) and the
+        // memory map shows the words as one segment; --overlap-error makes it fatal.
+        String[] overlapping = {
+                "        LOC     6",
+                "Start:  LDR     0,0,A",
+                "        HLT",
+                "A:      Data    5",
+                "        LOC     8",
+                "B:      Data    9" };
+        cs.add(new Case("overlap-warning", "Assembler6461")
+                .source("source.src", overlapping)
+                .prints("Warning: 1 word(s) from 000010 overwrite line 4 at line 6")
+                .file("output.lst", "1        000006 000010      3")
+                .expect("R0", 9));
+        cs.add(new Case("overlap-error", "Assembler6461", "--overlap-error")
+                .source("source.src", overlapping)
+                .fails("Overlap: 1 word(s) from 000010 overwrite line 4 at line 6"));
+
+        // Relister6461 rebuilds, from a --load-only run, the listing the full run wrote: macro
+        // origins, literal and pointer pools, an overwritten word and the cycle columns included.
+        // A source that no longer matches the map is rejected.
+        cs.add(new Case("load-only-relist", "Assembler6461", "--cycles")
+                .source("source.src",
+                        "Twice:  MACRO   a",
+                        "        AMR     0,0,a",
+                        "        AMR     0,0,a",
+                        "        ENDM",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,=4",
+                        "        Twice   One",
+                        "        LDR     1,0,Far",
+                        "        HLT",
+                        "One:    Data    1",
+                        "        LOC     11",
+                        "Over:   Data    2",
+                        "        LOC     100",
+                        "Far:    Data    42")
+                .run("Assembler6461", "--load-only", "--cycles")
+                .run("Relister6461", "--cycles", "-o", "relisted.lst")
+                .same("output.lst", "relisted.lst")
+                .expect("R0", 8).expect("R1", 42));
+        cs.add(new Case("load-only-source-changed", "Assembler6461", "--load-only")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,A",
+                        "        HLT",
+                        "A:      Data    5")
+                .source("other.src",
+                        "        LOC     6",
+                        "Start:  HLT")
+                .run("Relister6461", "--source", "other.src")
+                .fails("Source map line 3 has no matching source line (source changed since assembly?)"));
+
+        // A run stopped at its step limit resumes from its last checkpoint and ends exactly
+        // where an uninterrupted run does; a file of the wrong size or without a complete
+        // snapshot cannot be restored.
+        cs.add(new Case("checkpoint-resume", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     1,0,N",
+                        "Loop:   AMR     0,0,Two",
+                        "        SOB     1,0,Loop",
+                        "        HLT",
+                        "N:      Data    50",
+                        "Two:    Data    2")
+                .run("Simulator6461").prints("steps=102").prints("R0=000144")
+                .run("Simulator6461", "--checkpoint", "run.ckpt", "--checkpoint-every", "10", "--max-steps", "35")
+                .prints("Step limit reached.").prints("steps=35")
+                .run("Simulator6461", "--restore", "run.ckpt")
+                .prints("Restored at step 35 from run.ckpt").prints("steps=102").prints("R0=000144"));
+        cs.add(new Case("checkpoint-wrong-file", "Simulator6461", "--restore", "bad.ckpt")
+                .source("bad.ckpt", "not a checkpoint")
+                .fails("bad.ckpt is not a checkpoint file for 4096 words of memory"));
+        cs.add(new Case("checkpoint-empty", "Simulator6461", "--restore", "none.ckpt")
+                .fails("No complete checkpoint in none.ckpt"));
+
+        // Devices: a preloaded queue answers CHK and IN word by word and an append: file keeps
+        // what it held; unknown device kinds and ids out of range are rejected.
+        cs.add(new Case("devices-queue-append", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  CHK     2,5",
+                        "        IN      0,5",
+                        "        OUT     0,3",
+                        "        IN      1,5",
+                        "        OUT     1,3",
+                        "        CHK     3,5",
+                        "        HLT")
+                .source("log.txt", "log:")
+                .run("Simulator6461", "--device", "5=queue:hi", "--device", "3=append:log.txt")
+                .prints("R0=000150 R1=000151 R2=000001 R3=000000")
+                .file("log.txt", "log:" + System.lineSeparator() + "hi"));
+        cs.add(new Case("devices-unknown-kind", "Simulator6461", "--device", "5=tape:x")
+                .fails("Unknown device 'tape:x'"));
+        cs.add(new Case("devices-bad-id", "Simulator6461", "--device", "40=queue")
+                .fails("Device id must be 0..31 but got 40"));
+
+        // The ring keeps only the last --trace-size steps (rounded up to a power of two) and
+        // the decoder can show fewer; a size of 0 is rejected.
+        cs.add(new Case("trace-ring-wrap", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     1,0,N",
+                        "Loop:   AMR     0,0,Two",
+                        "        SOB     1,0,Loop",
+                        "        HLT",
+                        "N:      Data    50",
+                        "Two:    Data    2")
+                .run("Simulator6461", "--trace", "run.trace", "--trace-size", "3").prints("(last 4 of 102 steps)")
+                .run("Trace6461", "run.trace", "--last", "2")
+                .prints("Trace: 4 of 102 step(s), last 2 shown")
+                .prints("       102 000011 000000 ------")
+                .prints("line 4: SOB     1,0,Loop"));
+        cs.add(new Case("trace-size-zero", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  HLT")
+                .run("Simulator6461", "--trace", "run.trace", "--trace-size", "0")
+                .fails("Trace size must be 1..67108864"));
+
+        // Floating point through the simulator: CNVRT both ways, FADD, VADD over two vectors
+        // (1.0, 2.0) + (3.0, 4.0) = (4.0, 6.0); FADD of the largest value overflows (saturating,
+        // CC overflow) and CNVRT with c(r) not 0 or 1 is a machine fault.
+        cs.add(new Case("float-convert-add-vector", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     1,0,One",
+                        "        CNVRT   1,0,Three",
+                        "        STFR    0,0,T",
+                        "        CNVRT   1,0,Four",
+                        "        FADD    0,0,T",
+                        "        STFR    0,0,T",
+                        "        CNVRT   2,0,T",
+                        "        LDFR    1,0,Len",
+                        "        VADD    1,0,Ptrs",
+                        "        LDR     3,0,V1+1",
+                        "        HLT",
+                        "One:    Data    1",
+                        "Three:  Data    3",
+                        "Four:   Data    4",
+                        "T:      Data    0",
+                        "Len:    Data    2",
+                        "Ptrs:   Data    V1",
+                        "        Data    V2",
+                        "V1:     WORDS   384,640",
+                        "V2:     WORDS   704,896")
+                .expect("R2", 7).expect("R3", 960).expect("CC", 0));
+        cs.add(new Case("float-overflow", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDFR    0,0,Big",
+                        "        FADD    0,0,Big",
+                        "        STFR    0,0,Big",
+                        "        LDR     0,0,Big",
+                        "        HLT",
+                        "Big:    Data    16383")
+                .expect("R0", 16383).expect("CC", 1));
+        cs.add(new Case("float-convert-fault", "Assembler6461")
+                .source("source.src",
+                        "        LOC     6",
+                        "Start:  LDR     0,0,Two",
+                        "        CNVRT   0,0,Two",
+                        "        HLT",
+                        "Two:    Data    2")
+                .expect("MFR", 4));
+
+        // --layout moves hot far Data words into free low memory (by loop nesting, or by a
+        // profile of the previous build), so no pointer is needed; a word whose address is taken
+        // stays where it is and is relaxed instead.
+        String[] farLoop = {
+                "        LOC     6",
+                "Start:  LDR     1,0,N",
+                "Loop:   AMR     0,0,Step",
+                "        SOB     1,0,Loop",
+                "        HLT",
+                "        LOC     100",
+                "N:      Data    5",
+                "Step:   Data    3" };
+        cs.add(new Case("layout-far-data", "Assembler6461", "--layout")
+                .source("source.src", farLoop)
+                .prints("line 8: Step -> 000037  (data word, 1 reference(s))")
+                .prints("Loop                         80         60         20")
+                .run("Simulator6461", "--profile", "output.prof").prints("R0=000017")
+                .run("Assembler6461", "--layout-profile", "output.prof")
+                .prints("Layout estimate (executions x cycles, profile output.prof):")
+                .prints("Loop                         40         30         10")
+                .file("output.lst", "000037 000003 Step:   Data    3")
+                .expect("R0", 15));
+        String[] pointedAt = Arrays.copyOf(farLoop, farLoop.length + 1);
+        pointedAt[farLoop.length] = "Ptr:    Data    Step";
+        cs.add(new Case("layout-address-taken", "Assembler6461", "--layout")
+                .source("source.src", pointedAt)
+                .prints("Layout moved 1 item(s) into low memory.")
+                .prints("line 3: AMR 0,0,Step -> AMR 0,0,@Step,1  (pointer @Step)")
+                .expect("R0", 15));
+        cs.add(new Case("layout-profile-missing-name", "Assembler6461", "--layout-profile")
+                .source("source.src", farLoop)
+                .fails("--layout-profile expects a file name"));
+
+        // IsaGen6461 turns a description into range-checked encoders and exact-inverse decoder
+        // cases (a stepped kind checks both bounds and the step); --check rejects stale output
+        // and the generator rejects a reused opcode.
+        String[] miniIsa = {
+                "layout LS     r:9..8  ix:7..6  i:5  address:4..0",
+                "kind reg       0..3          \"Register must be 0..3\"",
+                "kind pair      0..2/2        \"{op} rx must be 0 or 2\"",
+                "kind addr      0..31         \"Address field must be 0..31\"",
+                "# ========== Instructions ==========",
+                "HLT    000  NONE   LS",
+                "LDR    001  LS     LS     r=reg ix=reg address=addr",
+                "MLT    070  RR     LS     r=pair ix=reg" };
+        cs.add(new Case("isa-generate", "IsaGen6461", "mini.txt", "-o", "Mini.java")
+                .source("mini.txt", miniIsa)
+                .file("Mini.java", "                return LDR << 10 | r << 8 | ix << 6 | address;")
+                .file("Mini.java", "                if (r > 2 || r % 2 != 0) return null;")
+                .file("Mini.java", "        if (v < 0 || v > 2 || v % 2 != 0) {")
+                .run("IsaGen6461", "mini.txt", "-o", "Mini.java", "--check").prints("Mini.java is up to date."));
+        cs.add(new Case("isa-stale-output", "IsaGen6461", "mini.txt", "-o", "Mini.java", "--check")
+                .source("mini.txt", miniIsa)
+                .source("Mini.java", "// generated from an older mini.txt")
+                .fails("Mini.java is out of date: run java IsaGen6461"));
+        cs.add(new Case("isa-opcode-taken", "IsaGen6461", "dup.txt", "-o", "Dup.java")
+                .source("dup.txt",
+                        "layout LS     r:9..8",
+                        "# ========== Instructions ==========",
+                        "HLT    000  NONE   LS",
+                        "STOP   000  NONE   LS")
+                .fails("Opcode 000 is out of range or taken at line 4"));
+
+        return cs;
+    }
+
+    // ========== Entry ==========
+    public static void main(String[] args) throws Exception {
+        Set<String> only = new HashSet<>(Arrays.asList(args));
+        int run = 0, failed = 0;
+        for (Case c : cases()) {
+            if (!only.isEmpty() && !only.contains(c.name)) continue;
+            run++;
+            String problem = c.run();
+            System.out.println((problem == null ? "ok    " : "FAIL  ") + c.name + (problem == null ? "" : ": " + problem));
+            if (problem != null) failed++;
+        }
+        System.out.println(failed == 0 ? run + " case(s) passed." : failed + " of " + run + " case(s) FAILED.");
+        if (failed != 0) System.exit(1);
+    }
+
+    // One program (its source files), the tools run on it in order, and what each must give
+    static class Case {
+        final String name;
+        final Map<String, List<String>> files = new LinkedHashMap<>();
+        final List<Step> steps = new ArrayList<>();
+        final Map<String, Integer> expect = new LinkedHashMap<>();
+        int start = -1; // -1: lowest loaded address
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        Case(String name, String tool, String... args) {
+            this(name);
+            run(tool, args);
+        }
+
+        Case source(String file, String... lines) {
+            files.put(file, Arrays.asList(lines));
+            return this;
+        }
+
+        // Adds a step; prints / fails / file / same apply to the last step added
+        Case run(String tool, String... args) {
+            steps.add(new Step(tool, args));
+            return this;
+        }
+
+        Case prints(String text) {
+            last().prints.add(text);
+            return this;
+        }
+
+        Case fails(String message) {
+            last().error = message;
+            return this;
+        }
+
+        Case file(String file, String text) {
+            last().contains.add(new String[] { file, text });
+            return this;
+        }
+
+        Case same(String file, String other) {
+            last().same.add(new String[] { file, other });
+            return this;
+        }
+
+        Case start(int addr) {
+            start = addr;
+            return this;
+        }
+
+        // After the steps: run output.load in the simulator and compare the register
+        Case expect(String reg, int value) {
+            expect.put(reg, value);
+            return this;
+        }
+
+        private Step last() {
+            if (steps.isEmpty()) throw new IllegalStateException("Case " + name + " has no step yet");
+            return steps.get(steps.size() - 1);
+        }
+
+        // null if the case passed, else what went wrong
+        String run() throws IOException, InterruptedException {
+            Path dir = Files.createTempDirectory("regress6461");
+            try {
+                for (Map.Entry<String, List<String>> f : files.entrySet()) Files.write(dir.resolve(f.getKey()), f.getValue());
+                for (Step s : steps) {
+                    String problem = s.run(dir);
+                    if (problem != null) return problem;
+                }
+                return expect.isEmpty() ? null : simulate(dir.resolve("output.load"));
+            } finally {
+                delete(dir);
+            }
+        }
+
+        private String simulate(Path load) throws IOException {
+            Simulator6461 sim = new Simulator6461();
+            int first = sim.load(load);
+            sim.pc = (start >= 0) ? start : first;
+            sim.run(MAX_STEPS);
+            sim.devices.flush();
+            if (!sim.halted) return "no HLT within " + MAX_STEPS + " steps";
+            StringBuilder wrong = new StringBuilder();
+            for (Map.Entry<String, Integer> e : expect.entrySet()) {
+                int got = register(sim, e.getKey());
+                if (got != e.getValue()) wrong.append(' ').append(e.getKey()).append('=').append(got).append(" (expected ").append(e.getValue()).append(')');
+            }
+            if (!expect.containsKey("MFR") && sim.mfr != 0) wrong.append(" machine fault MFR=").append(sim.mfr);
+            return wrong.length() == 0 ? null : wrong.toString().trim() + "\n" + sim.stateString();
+        }
+    }
+
+    // One tool run in a child JVM, in the case's directory
+    static class Step {
+        final String tool;
+        final List<String> args;
+        final List<String> prints = new ArrayList<>();
+        final List<String[]> contains = new ArrayList<>(); // {file, text}
+        final List<String[]> same = new ArrayList<>();     // {file, file}
+        String error; // non-null: the tool must fail with this message
+
+        Step(String tool, String... args) {
+            this.tool = tool;
+            this.args = Arrays.asList(args);
+        }
+
+        String run(Path dir) throws IOException, InterruptedException {
+            List<String> cmd = new ArrayList<>(List.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), tool));
+            cmd.addAll(args);
+            Process p = new ProcessBuilder(cmd).directory(dir.toFile()).redirectErrorStream(true).start();
+            p.getOutputStream().close(); // stdin (device 0 by default) is at end of input
+            String out = new String(p.getInputStream().readAllBytes());
+            int exit = p.waitFor();
+            String what = tool + " " + String.join(" ", args);
+
+            if (error != null) {
+                if (exit == 0) return what + " succeeded, expected: " + error;
+                return out.contains(error) ? null : what + " failed without '" + error + "':\n" + out;
+            }
+            if (exit != 0) return what + " failed:\n" + out;
+            for (String s : prints) {
+                if (!out.contains(s)) return what + " did not print '" + s + "':\n" + out;
+            }
+            for (String[] c : contains) {
+                Path f = dir.resolve(c[0]);
+                if (!Files.exists(f)) return what + " wrote no " + c[0];
+                String text = Files.readString(f);
+                if (!text.contains(c[1])) return c[0] + " after " + what + " has no '" + c[1] + "':\n" + text;
+            }
+            for (String[] c : same) {
+                if (!Files.exists(dir.resolve(c[0])) || !Files.exists(dir.resolve(c[1]))
+                        || Files.mismatch(dir.resolve(c[0]), dir.resolve(c[1])) >= 0) {
+                    return c[0] + " and " + c[1] + " differ after " + what;
+                }
+            }
+            return null;
+        }
+    }
+
+    static void delete(Path p) throws IOException {
+        if (Files.isDirectory(p)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(p)) {
+                for (Path f : ds) delete(f);
+            }
+        }
+        Files.delete(p);
+    }
+
+    static int register(Simulator6461 sim, String reg) {
+        switch (reg) {
+            case "CC": return sim.cc;
+            case "MFR": return sim.mfr;
+            default:
+                int n = reg.length() == 2 ? reg.charAt(1) - '0' : -1;
+                if (reg.charAt(0) == 'R' && n >= 0 && n <= 3) return sim.gpr[n];
+                if (reg.charAt(0) == 'X' && n >= 1 && n <= 3) return sim.ixr[n];
+                throw new IllegalArgumentException("Unknown register " + reg);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Listing Rebuilder
+ *
+ * Rebuilds output.lst for a run made with Assembler6461 --load-only, only when someone needs it.
+ *
+ * Inputs:
+ *  - source.src   the source (INCLUDE / MACRO are expanded again for line text and origins)
+ *  - output.map   assembler source map, in listing order; pool words and pool LOCs carry
+ *                 their own text (|text) and the listing notes follow as "# " lines
+ *  - output.load  assembled words (plain or --compact-load)
+ * Output (default output.lst): the listing the assembler would have written with the same
+ * --cycles / --cost-table options, memory map included. Words that a later line overwrote
+ * (overlaps) come from the map's "!" records, everything else from the load file.
+ *
+ * Usage:
+ *  java Relister6461 [--source f] [--map f] [--load f] [-o f] [--cycles] [--cost-table f]
+ */
+public class Relister6461 {
+
+    public static void main(String[] args) throws Exception {
+        Path src = Paths.get("source.src");
+        Path mapIn = Paths.get("output.map");
+        Path loadIn = Paths.get("output.load");
+        Path out = Paths.get("output.lst");
+        Assembler6461.CostTable costs = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--source": src = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "--map": mapIn = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "--load": loadIn = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "-o": out = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "--cycles": if (costs == null) costs = Assembler6461.CostTable.defaults(); break;
+                case "--cost-table": costs = Assembler6461.CostTable.load(Paths.get(Simulator6461.argValue(args, i++))); break;
+                default: throw new IllegalArgumentException("Unknown option '" + args[i] + "'");
+            }
+        }
+
+        List<Assembler6461.ParsedLine> lines = Assembler6461.preprocess(
+                Assembler6461.parseLines(Files.readAllLines(src)), src);
+        relist(lines, Assembler6461.readSourceMap(mapIn), Assembler6461.readMapNotes(mapIn, '#'),
+                shadowed(Assembler6461.readMapNotes(mapIn, '!')), Assembler6461.readLoadFile(loadIn), costs, out);
+        System.out.println("Listing file:" + out.toAbsolutePath());
+    }
+
+    // lines: the preprocessed source. Map entries are matched to it in order: each source
+    // entry takes the next listed line (LOC or word) with its line number; lines in between
+    // only contribute labels, at the current location, as they do in pass 2.
+    static void relist(List<Assembler6461.ParsedLine> lines,
+                       List<Assembler6461.MapEntry> map,
+                       List<String> notes,
+                       Map<Integer, Deque<Integer>> shadowed,
+                       Map<Integer, Integer> image,
+                       Assembler6461.CostTable costs,
+                       Path out) throws IOException {
+        Assembler6461.MemoryMap mem = new Assembler6461.MemoryMap();
+
+        try (BufferedWriter lst = Files.newBufferedWriter(out)) {
+            Assembler6461.Listing listing = new Assembler6461.Listing(lst, costs);
+            int next = 0;     // first source line not yet consumed
+            int loc = 0;      // location counter after the last entry
+            boolean pool = false;
+
+            for (Assembler6461.MapEntry e : map) {
+                Assembler6461.ParsedLine pl;
+                if (e.text != null) {
+                    // A pool follows its LTORG, or comes after the whole source
+                    if (!pool) next = labelsThroughPool(lines, next, listing, loc);
+                    pool = true;
+                    pl = Assembler6461.syntheticLine(e);
+                } else {
+                    pool = false;
+                    int at = next;
+                    while (at < lines.size() && !(lines.get(at).lineNo == e.lineNo && listed(lines.get(at)))) at++;
+                    if (at == lines.size()) {
+                        throw new IllegalArgumentException("Source map line " + e.lineNo
+                                + " has no matching source line (source changed since assembly?)");
+                    }
+                    for (; next < at; next++) label(lines.get(next), listing, loc);
+                    pl = lines.get(next++);
+                }
+
+                if ("LOC".equals(pl.op)) {
+                    listing.loc(pl, e.addr);
+                    loc = e.addr;
+                    continue;
+                }
+                if (pl.label != null) listing.label(pl.label, e.addr);
+                mem.claim(pl.lineNo, e.addr, e.words);
+                loc = e.addr + e.words;
+                if ("SPACE".equals(pl.op) || e.words == 0) {
+                    listing.block(pl, e.addr, e.words, null);
+                    continue;
+                }
+
+                // A word a later line overwrote is listed with the value it had here
+                int first = 0;
+                for (int a = e.addr + e.words - 1; a >= e.addr; a--) {
+                    Deque<Integer> old = shadowed.get(a);
+                    first = (old != null && !old.isEmpty()) ? old.poll() : word(image, a);
+                }
+                if (Assembler6461.isBlockData(pl.op)) listing.block(pl, e.addr, e.words, first);
+                else listing.word(pl, e.addr, first);
+            }
+            listing.finish(notes, mem);
+        }
+    }
+
+    // Lines that have a map entry of their own
+    static boolean listed(Assembler6461.ParsedLine pl) {
+        return "LOC".equals(pl.op) || (pl.op != null && pl.generatesWord);
+    }
+
+    private static void label(Assembler6461.ParsedLine pl, Assembler6461.Listing listing, int loc) {
+        if (pl.label != null && !"EQU".equals(pl.op)) listing.label(pl.label, loc);
+    }
+
+    // Consumes unlisted lines up to and including the LTORG that placed the pool, or all of
+    // them when the pool is the end-of-source one
+    private static int labelsThroughPool(List<Assembler6461.ParsedLine> lines, int next,
+                                         Assembler6461.Listing listing, int loc) {
+        int stop = next;
+        while (stop < lines.size() && !listed(lines.get(stop)) && !"LTORG".equals(lines.get(stop).op)) stop++;
+        if (stop < lines.size() && "LTORG".equals(lines.get(stop).op)) stop++;
+        else if (stop < lines.size()) return next; // not at a pool boundary: leave the lines to the next entry
+        for (; next < stop; next++) label(lines.get(next), listing, loc);
+        return next;
+    }
+
+    // "! <addr> <word>" records -> addr -> words in the order they were overwritten
+    static Map<Integer, Deque<Integer>> shadowed(List<String> records) {
+        Map<Integer, Deque<Integer>> out = new HashMap<>();
+        for (String r : records) {
+            String[] f = r.trim().split("\\s+");
+            if (f.length != 2) throw new IllegalArgumentException("Bad overwritten-word record '" + r + "' in source map");
+            out.computeIfAbsent(Integer.parseInt(f[0], 8), k -> new ArrayDeque<>()).add(Integer.parseInt(f[1], 8));
+        }
+        return out;
+    }
+
+    private static int word(Map<Integer, Integer> image, int addr) {
+        Integer w = image.get(addr);
+        if (w == null) throw new IllegalArgumentException("No load record for address " + Assembler6461.fmt6(addr));
+        return w;
+    }
+}
@@ -0,0 +1,588 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Simulator (instruction-level interpreter)
+ *
+ * Loads an assembler load file and executes it from a start address until HLT,
+ * a machine fault, or a step limit.
+ *
+ * Machine state:
+ *  - Memory: MEM_SIZE 16-bit words (addresses 0..5 are reserved for the machine)
+ *  - GPR R0..R3, IXR X1..X3, FR0..FR1, PC, CC (4 bits), MFR (4 bits)
+ *  - FR and vector elements use the 6461 floating-point format (see Float6461)
+ *  - Cache: 16-line fully associative FIFO tag model (hit/miss counts only, see Cache)
+ *
+ * Profiling:
+ *  Per-address execution, read and write counters are kept in primitive arrays and
+ *  bumped unconditionally, so profiling costs one array increment per access.
+ *  --profile <file> writes them as: <octal_addr(6)> <executions> <reads> <writes>
+ *
+ * Checkpoints (see Checkpoint6461):
+ *  --checkpoint <file> snapshots the machine state every --checkpoint-every steps (default
+ *  1000000) and at the end; --restore <file> resumes from the latest snapshot instead of
+ *  loading a load file. Profile counters are not part of a checkpoint.
+ *
+ * Tracing (see Trace6461):
+ *  --trace <file> keeps the last --trace-size steps (default 65536) in an off-heap ring and
+ *  dumps it when the run ends or is interrupted; Trace6461 decodes the dump.
+ *
+ * I/O: IN / OUT / CHK go through Devices6461 (buffered channels, queues); --device id=spec
+ *  maps a device id, e.g. --device 0=in:input.txt --device 1=out:printer.txt.
+ *
+ * Usage:
+ *  java Simulator6461 [load file] [--start addr] [--max-steps n] [--profile file]
+ *                     [--checkpoint file] [--checkpoint-every n] [--restore file]
+ *                     [--device id=spec]... [--trace file] [--trace-size n]
+ */
+public class Simulator6461 {
+
+    static final int MEM_SIZE = 4096;
+    static final int RESERVED = 6; // 0..5: trap table, fault PC/MSR, ...
+
+    // Condition code bits (cc operand of JCC selects bit 0..3)
+    static final int CC_OVERFLOW  = 1;
+    static final int CC_UNDERFLOW = 1 << 1;
+    static final int CC_DIVZERO   = 1 << 2;
+    static final int CC_EQUAL     = 1 << 3;
+
+    // Machine fault register bits
+    static final int MFR_RESERVED = 1;      // write to a reserved location
+    static final int MFR_TRAP     = 1 << 1; // illegal TRAP code
+    static final int MFR_OPCODE   = 1 << 2; // illegal / unimplemented opcode
+    static final int MFR_RANGE    = 1 << 3; // address beyond memory
+
+    // ========== Machine State ==========
+    final int[] mem = new int[MEM_SIZE];
+    final int[] gpr = new int[4];
+    final int[] ixr = new int[4]; // ixr[0] unused (IX=0 means no indexing)
+    final int[] fr = new int[2];
+    int pc;
+    int cc;
+    int mfr;
+    boolean halted;
+    long steps;
+    final Cache cache = new Cache();
+    Devices6461 devices = Devices6461.standard();
+    Trace6461 trace;   // null: not tracing
+    int lastEa;        // effective address of the current step, -1 if none (for the trace)
+
+    // ========== Profile Counters ==========
+    final long[] execCount = new long[MEM_SIZE];
+    final long[] readCount = new long[MEM_SIZE];
+    final long[] writeCount = new long[MEM_SIZE];
+
+    // ========== Entry ==========
+    public static void main(String[] args) throws Exception {
+        Path loadIn = Paths.get("output.load");
+        Path profileOut = null;
+        Path checkpoint = null;
+        Path restore = null;
+        Integer start = null;
+        long maxSteps = Long.MAX_VALUE;
+        long every = 1_000_000;
+        List<String> deviceSpecs = new ArrayList<>();
+        Path traceOut = null;
+        int traceSize = 1 << 16;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--start":
+                    start = Assembler6461.parseDecimal(argValue(args, i++), 0);
+                    break;
+                case "--max-steps":
+                    maxSteps = Long.parseLong(argValue(args, i++));
+                    break;
+                case "--profile":
+                    profileOut = Paths.get(argValue(args, i++));
+                    break;
+                case "--checkpoint":
+                    checkpoint = Paths.get(argValue(args, i++));
+                    break;
+                case "--checkpoint-every":
+                    every = Long.parseLong(argValue(args, i++));
+                    if (every <= 0) throw new IllegalArgumentException("--checkpoint-every expects a positive step count");
+                    break;
+                case "--restore":
+                    restore = Paths.get(argValue(args, i++));
+                    break;
+                case "--device":
+                    deviceSpecs.add(argValue(args, i++));
+                    break;
+                case "--trace":
+                    traceOut = Paths.get(argValue(args, i++));
+                    break;
+                case "--trace-size":
+                    traceSize = Assembler6461.parseDecimal(argValue(args, i++), 0);
+                    break;
+                default:
+                    loadIn = Paths.get(args[i]);
+            }
+        }
+
+        Simulator6461 sim = new Simulator6461();
+        sim.devices.resume = (restore != null);
+        for (String d : deviceSpecs) sim.devices.map(d);
+        if (restore != null) {
+            try (Checkpoint6461 cp = Checkpoint6461.open(restore)) {
+                if (!cp.restore(sim)) throw new IllegalArgumentException("No complete checkpoint in " + restore);
+            }
+            System.out.println("Restored at step " + sim.steps + " from " + restore);
+            if (start != null) sim.pc = start;
+        } else {
+            int first = sim.load(loadIn);
+            sim.pc = (start != null) ? start : first;
+        }
+
+        Thread dumpOnExit = null;
+        if (traceOut != null) {
+            Trace6461 trace = sim.trace = new Trace6461(traceSize);
+            Path dump = traceOut;
+            dumpOnExit = new Thread(() -> {
+                try {
+                    trace.dump(dump);
+                    System.err.println("Trace:       " + dump.toAbsolutePath() + " (interrupted)");
+                } catch (IOException e) {
+                    System.err.println("Trace dump failed: " + e.getMessage());
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(dumpOnExit);
+        }
+
+        if (checkpoint != null) {
+            try (Checkpoint6461 cp = Checkpoint6461.open(checkpoint)) {
+                do {
+                    sim.run(Math.min(maxSteps, sim.steps + Math.min(every, Long.MAX_VALUE - sim.steps)));
+                    cp.save(sim); // flushes output, so the file size saved is what is on disk
+                } while (!sim.halted && sim.steps < maxSteps);
+            }
+        } else {
+            sim.run(maxSteps);
+        }
+        sim.devices.close();
+        if (sim.trace != null) {
+            Runtime.getRuntime().removeShutdownHook(dumpOnExit);
+            sim.trace.dump(traceOut);
+        }
+
+        System.out.println(sim.halted ? (sim.mfr != 0 ? "Machine fault." : "Halted.") : "Step limit reached.");
+        System.out.println(sim.stateString());
+        if (checkpoint != null) System.out.println("Checkpoint:  " + checkpoint.toAbsolutePath());
+        if (traceOut != null) {
+            System.out.println("Trace:       " + traceOut.toAbsolutePath() + " (last "
+                    + Math.min(sim.trace.count, sim.trace.capacity()) + " of " + sim.trace.count + " steps)");
+        }
+        if (profileOut != null) {
+            sim.writeProfile(profileOut);
+            System.out.println("Profile:     " + profileOut.toAbsolutePath());
+        }
+    }
+
+    static String argValue(String[] args, int i) {
+        if (i + 1 >= args.length) throw new IllegalArgumentException(args[i] + " expects a value");
+        return args[i + 1];
+    }
+
+    // ========== Loading ==========
+    // Copies each contiguous segment of the load file into memory in one call.
+    // Returns the lowest loaded address (default start address)
+    int load(Path loadFile) throws IOException {
+        List<int[]> segments = Assembler6461.readLoadSegments(loadFile);
+        for (int[] seg : segments) {
+            int addr = seg[0], n = seg.length - 1;
+            if (addr + n > MEM_SIZE) {
+                throw new IllegalArgumentException("Load address " + (addr + n - 1) + " is beyond memory (" + MEM_SIZE + " words)");
+            }
+            System.arraycopy(seg, 1, mem, addr, n);
+        }
+        return segments.isEmpty() ? 0 : segments.get(0)[0];
+    }
+
+    int load(Map<Integer, Integer> image) {
+        int first = -1;
+        for (Map.Entry<Integer, Integer> e : image.entrySet()) {
+            int addr = e.getKey();
+            if (addr < 0 || addr >= MEM_SIZE) {
+                throw new IllegalArgumentException("Load address " + addr + " is beyond memory (" + MEM_SIZE + " words)");
+            }
+            mem[addr] = e.getValue() & 0xFFFF;
+            if (first < 0 || addr < first) first = addr;
+        }
+        return Math.max(first, 0);
+    }
+
+    // ========== Execution ==========
+    void run(long maxSteps) {
+        if (trace == null) {
+            while (!halted && steps < maxSteps) step();
+            return;
+        }
+        while (!halted && steps < maxSteps) {
+            trace.begin(this);
+            step();
+            trace.record(this);
+        }
+    }
+
+    void step() {
+        if (pc < 0 || pc >= MEM_SIZE) {
+            fault(MFR_RANGE);
+            return;
+        }
+        int w = mem[pc];
+        cache.access(pc);
+        execCount[pc]++;
+        steps++;
+
+        int op = w >>> 10;
+        int r = (w >>> 8) & 0x3;
+        int ix = (w >>> 6) & 0x3;
+        int i = (w >>> 5) & 0x1;
+        int addr = w & 0x1F;
+        int next = (pc + 1) & 0xFFFF;
+
+        switch (op) {
+            // ---- Misc ----
+            case Isa6461.HLT:
+                halted = true;
+                return;
+            case Isa6461.TRAP: {
+                if ((w & 0x10) != 0) { fault(MFR_TRAP); return; }
+                writeMachine(2, next);
+                int table = read(0);
+                if (halted) return;
+                next = read((table + (w & 0xF)) & 0xFFFF);
+                break;
+            }
+
+            // ---- Load/Store ----
+            case Isa6461.LDR:
+                gpr[r] = read(ea(ix, i, addr, true));
+                break;
+            case Isa6461.STR:
+                write(ea(ix, i, addr, true), gpr[r]);
+                break;
+            case Isa6461.LDA:
+                gpr[r] = ea(ix, i, addr, true);
+                break;
+            case Isa6461.LDX:
+                if (ix != 0) ixr[ix] = read(ea(0, i, addr, false));
+                break;
+            case Isa6461.STX:
+                if (ix != 0) write(ea(0, i, addr, false), ixr[ix]);
+                break;
+
+            // ---- Transfer ----
+            case Isa6461.JZ: {
+                int ea = ea(ix, i, addr, true);
+                if (gpr[r] == 0) next = ea;
+                break;
+            }
+            case Isa6461.JNE: {
+                int ea = ea(ix, i, addr, true);
+                if (gpr[r] != 0) next = ea;
+                break;
+            }
+            case Isa6461.JCC: {
+                int ea = ea(ix, i, addr, true);
+                if ((cc & (1 << r)) != 0) next = ea;
+                break;
+            }
+            case Isa6461.JMA:
+                next = ea(ix, i, addr, true);
+                break;
+            case Isa6461.JSR: {
+                int ea = ea(ix, i, addr, true);
+                gpr[3] = next;
+                next = ea;
+                break;
+            }
+            case Isa6461.RFS:
+                gpr[0] = addr;
+                next = gpr[3];
+                break;
+            case Isa6461.SOB: {
+                int ea = ea(ix, i, addr, true);
+                gpr[r] = (gpr[r] - 1) & 0xFFFF;
+                if ((short) gpr[r] > 0) next = ea;
+                break;
+            }
+            case Isa6461.JGE: {
+                int ea = ea(ix, i, addr, true);
+                if ((short) gpr[r] >= 0) next = ea;
+                break;
+            }
+
+            // ---- Arithmetic (memory / immediate) ----
+            case Isa6461.AMR:
+                gpr[r] = add(gpr[r], read(ea(ix, i, addr, true)));
+                break;
+            case Isa6461.SMR:
+                gpr[r] = sub(gpr[r], read(ea(ix, i, addr, true)));
+                break;
+            case Isa6461.AIR:
+                if (addr != 0) gpr[r] = add(gpr[r], addr);
+                break;
+            case Isa6461.SIR:
+                if (addr != 0) gpr[r] = sub(gpr[r], addr);
+                break;
+
+            // ---- Reg-to-reg (rx = R field, ry = IX field) ----
+            case Isa6461.MLT: { // a 16x16-bit signed product always fits the pair: no OVERFLOW
+                if ((r & 1) != 0) { fault(MFR_OPCODE); return; } // rx names a pair: 0 or 2
+                int p = (short) gpr[r] * (short) gpr[ix];
+                gpr[r] = (p >>> 16) & 0xFFFF;
+                gpr[r + 1] = p & 0xFFFF;
+                break;
+            }
+            case Isa6461.DVD: {
+                if ((r & 1) != 0) { fault(MFR_OPCODE); return; }
+                int d = (short) gpr[ix];
+                if (d == 0) {
+                    cc |= CC_DIVZERO;
+                    break;
+                }
+                int n = (short) gpr[r];
+                gpr[r] = (n / d) & 0xFFFF;
+                gpr[r + 1] = (n % d) & 0xFFFF;
+                break;
+            }
+            case Isa6461.TRR:
+                cc = (gpr[r] == gpr[ix]) ? (cc | CC_EQUAL) : (cc & ~CC_EQUAL);
+                break;
+            case Isa6461.AND:
+                gpr[r] &= gpr[ix];
+                break;
+            case Isa6461.ORR:
+                gpr[r] |= gpr[ix];
+                break;
+            case Isa6461.NOT:
+                gpr[r] = ~gpr[r] & 0xFFFF;
+                break;
+
+            // ---- Shift/Rotate: A/L bit 7, L/R bit 6, count bits 5..2 ----
+            case Isa6461.SRC:
+                gpr[r] = shift(gpr[r], (w >>> 2) & 0xF, ((w >>> 6) & 1) != 0, ((w >>> 7) & 1) != 0);
+                break;
+            case Isa6461.RRC:
+                gpr[r] = rotate(gpr[r], (w >>> 2) & 0xF, ((w >>> 6) & 1) != 0);
+                break;
+
+            // ---- Floating point / vector (Float6461): fr in the R field ----
+            case Isa6461.FADD:
+            case Isa6461.FSUB: {
+                if (r > 1) { fault(MFR_OPCODE); return; }
+                int v = read(ea(ix, i, addr, true));
+                if (halted) return;
+                int res = (op == Isa6461.FADD) ? Float6461.add(fr[r], v) : Float6461.sub(fr[r], v);
+                fr[r] = res & 0xFFFF;
+                cc |= res >>> 16;
+                break;
+            }
+            case Isa6461.VADD: // fr = length, c(EA) = base of V1, c(EA+1) = base of V2
+            case Isa6461.VSUB: {
+                if (r > 1) { fault(MFR_OPCODE); return; }
+                int ea = ea(ix, i, addr, true);
+                int v1 = read(ea), v2 = read((ea + 1) & 0xFFFF);
+                if (halted) return;
+                int n = fr[r];
+                if (n == 0) break;
+                if (v1 + n > MEM_SIZE || v2 + n > MEM_SIZE) { fault(MFR_RANGE); return; }
+                if (v1 < RESERVED) { fault(MFR_RESERVED); return; }
+                for (int k = 0; k < n; k++) {
+                    readCount[v1 + k]++;
+                    readCount[v2 + k]++;
+                    writeCount[v1 + k]++;
+                    cache.access(v1 + k);
+                    cache.access(v2 + k);
+                }
+                cc |= Float6461.vector(mem, v1, v2, n, op == Isa6461.VSUB);
+                break;
+            }
+            case Isa6461.CNVRT: { // c(r) = 0: r <- fixed(c(EA)); 1: FR0 <- float(c(EA))
+                int v = read(ea(ix, i, addr, true));
+                if (halted) return;
+                if (gpr[r] == 0) {
+                    int res = Float6461.toFixed(v);
+                    gpr[r] = res & 0xFFFF;
+                    cc |= res >>> 16;
+                } else if (gpr[r] == 1) {
+                    fr[0] = Float6461.fromFixed(v);
+                } else {
+                    fault(MFR_OPCODE);
+                    return;
+                }
+                break;
+            }
+            case Isa6461.LDFR:
+                if (r > 1) { fault(MFR_OPCODE); return; }
+                fr[r] = read(ea(ix, i, addr, true));
+                break;
+            case Isa6461.STFR:
+                if (r > 1) { fault(MFR_OPCODE); return; }
+                write(ea(ix, i, addr, true), fr[r]);
+                break;
+
+            // ---- I/O: devid in the address field ----
+            case Isa6461.IN:
+                gpr[r] = devices.in(addr);
+                break;
+            case Isa6461.OUT:
+                devices.out(addr, gpr[r]);
+                break;
+            case Isa6461.CHK:
+                gpr[r] = devices.chk(addr);
+                break;
+
+            default:
+                fault(MFR_OPCODE);
+                return;
+        }
+
+        if (!halted) pc = next;
+    }
+
+    // Effective address. indexed=false for LDX/STX, whose IX field names the target register.
+    int ea(int ix, int i, int addr, boolean indexed) {
+        int ea = addr;
+        if (indexed && ix != 0) ea = (ea + ixr[ix]) & 0xFFFF;
+        if (i != 0) ea = read(ea);
+        lastEa = ea;
+        return ea;
+    }
+
+    int read(int addr) {
+        if (addr >= MEM_SIZE) {
+            fault(MFR_RANGE);
+            return 0;
+        }
+        readCount[addr]++;
+        cache.access(addr);
+        return mem[addr];
+    }
+
+    void write(int addr, int value) {
+        if (addr < RESERVED) {
+            fault(MFR_RESERVED);
+            return;
+        }
+        if (addr >= MEM_SIZE) {
+            fault(MFR_RANGE);
+            return;
+        }
+        writeCount[addr]++;
+        cache.access(addr);
+        mem[addr] = value & 0xFFFF;
+    }
+
+    // Machine-internal writes (TRAP return address) may target reserved locations
+    void writeMachine(int addr, int value) {
+        mem[addr] = value & 0xFFFF;
+    }
+
+    void fault(int bit) {
+        mfr |= bit;
+        halted = true;
+    }
+
+    // ========== Cache ==========
+    // Fully associative, FIFO replacement, write-through with write-allocate. Memory always
+    // holds the data, so only the tags are modelled: fetches, reads and writes count as a hit
+    // or a miss, and a miss replaces the oldest line.
+    static class Cache {
+        static final int LINES = 16;
+        static final int LINE_WORDS = 4;
+
+        final int[] tags = new int[LINES]; // block number (addr / LINE_WORDS), -1: invalid
+        int next;                          // FIFO victim
+        long hits, misses;
+
+        Cache() {
+            Arrays.fill(tags, -1);
+        }
+
+        void access(int addr) {
+            int block = addr / LINE_WORDS;
+            for (int t : tags) {
+                if (t == block) {
+                    hits++;
+                    return;
+                }
+            }
+            misses++;
+            tags[next] = block;
+            next = (next + 1) % LINES;
+        }
+    }
+
+    // ---- ALU helpers (16-bit two's complement) ----
+    int add(int a, int b) {
+        int s = (short) a + (short) b;
+        if (s > Short.MAX_VALUE || s < Short.MIN_VALUE) cc |= CC_OVERFLOW;
+        return s & 0xFFFF;
+    }
+
+    int sub(int a, int b) {
+        int s = (short) a - (short) b;
+        if (s > Short.MAX_VALUE || s < Short.MIN_VALUE) cc |= CC_UNDERFLOW;
+        return s & 0xFFFF;
+    }
+
+    static int shift(int v, int count, boolean left, boolean logical) {
+        if (left) return (v << count) & 0xFFFF;
+        if (logical) return (v & 0xFFFF) >>> count;
+        return ((short) v >> count) & 0xFFFF;
+    }
+
+    static int rotate(int v, int count, boolean left) {
+        v &= 0xFFFF;
+        count &= 15;
+        if (!left) count = (16 - count) & 15;
+        return ((v << count) | (v >>> (16 - count))) & 0xFFFF;
+    }
+
+    // ========== Reporting ==========
+    String stateString() {
+        return String.format("PC=%06o CC=%s MFR=%s steps=%d%n"
+                        + "R0=%06o R1=%06o R2=%06o R3=%06o%n"
+                        + "X1=%06o X2=%06o X3=%06o FR0=%06o FR1=%06o%n"
+                        + "Cache: %d hit(s), %d miss(es)",
+                pc, bits4(cc), bits4(mfr), steps,
+                gpr[0], gpr[1], gpr[2], gpr[3],
+                ixr[1], ixr[2], ixr[3], fr[0], fr[1],
+                cache.hits, cache.misses);
+    }
+
+    private static String bits4(int v) {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 3; b >= 0; b--) sb.append((v >>> b) & 1);
+        return sb.toString();
+    }
+
+    void writeProfile(Path p) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(p)) {
+            for (int a = 0; a < MEM_SIZE; a++) {
+                if (execCount[a] == 0 && readCount[a] == 0 && writeCount[a] == 0) continue;
+                out.write(Assembler6461.fmt6(a) + " " + execCount[a] + " " + readCount[a] + " " + writeCount[a]);
+                out.newLine();
+            }
+        }
+    }
+
+    // Profile file as addr -> {executions, reads, writes}
+    static Map<Integer, long[]> readProfile(Path p) throws IOException {
+        Map<Integer, long[]> out = new HashMap<>();
+        int n = 0;
+        for (String line : Files.readAllLines(p)) {
+            n++;
+            String t = line.trim();
+            if (t.isEmpty()) continue;
+            String[] f = t.split("\\s+");
+            if (f.length != 4) throw new IllegalArgumentException("Bad profile record at line " + n + " of " + p);
+            out.put(Integer.parseInt(f[0], 8),
+                    new long[] { Long.parseLong(f[1]), Long.parseLong(f[2]), Long.parseLong(f[3]) });
+        }
+        return out;
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CSCI 6461 Execution Trace (binary ring buffer + offline decoder)
+ *
+ * Simulator6461 --trace <file> records every step into a fixed-size ring of ENTRY-byte
+ * records in a direct ByteBuffer (native byte order, no per-step allocation or formatting),
+ * so only the last --trace-size steps are kept. The ring is dumped when the run ends (halt,
+ * machine fault, step limit) or when the simulator is interrupted (Ctrl-C / kill).
+ *
+ * Entry (ENTRY = 40 bytes, five longs, registers as they are after the step):
+ *   0  step number (1-based)
+ *   8  PC | word << 16 | effective address << 32  (address -1: none)
+ *  16  R0 | R1 << 16 | R2 << 32 | R3 << 48
+ *  24  X1 | X2 << 16 | X3 << 32 | (CC | MFR << 4) << 48
+ *  32  FR0 | FR1 << 16
+ * Recording is five stores; the decoder finds register deltas by comparing neighbours.
+ *
+ * Dump file: header (HEADER bytes)
+ *   0  int  MAGIC   4  int  VERSION       8  int  byte order (0 big, 1 little endian)
+ *  12  int  ENTRY  16  int  ring capacity 20  long steps recorded in total
+ * then the retained entries, oldest first.
+ *
+ * Decoder: prints one line per entry, with the registers the step changed and the listing
+ * line of the PC, found through output.map (address -> listing entry) and output.lst:
+ *  <step> <pc> <word> <ea | ------> <changes>   <listing text | disassembly>
+ *
+ * Usage:
+ *  java Trace6461 [trace file] [--map f] [--list f] [--last n] [-o f]
+ */
+public class Trace6461 {
+
+    static final int MAGIC = 0x54523631; // "TR61"
+    static final int VERSION = 2; // 2: entries hold FR0/FR1
+    static final int ENTRY = 40;
+    static final int HEADER = 28;
+
+    final ByteBuffer ring;
+    final int mask;
+    long count;
+
+    private long pcWord; // PC | word << 16 of the current step
+
+    // entries: rounded up to a power of two
+    Trace6461(int entries) {
+        if (entries <= 0 || entries > (1 << 26)) throw new IllegalArgumentException("Trace size must be 1.." + (1 << 26));
+        int cap = Integer.highestOneBit(entries);
+        if (cap < entries) cap <<= 1;
+        this.ring = ByteBuffer.allocateDirect(cap * ENTRY).order(ByteOrder.nativeOrder());
+        this.mask = cap - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    // ========== Recording ==========
+    void begin(Simulator6461 sim) {
+        int pc = sim.pc;
+        int word = (pc >= 0 && pc < Simulator6461.MEM_SIZE) ? sim.mem[pc] : 0;
+        pcWord = (pc & 0xFFFF) | (long) word << 16;
+        sim.lastEa = -1;
+    }
+
+    void record(Simulator6461 sim) {
+        int[] g = sim.gpr, x = sim.ixr, f = sim.fr;
+        int at = (int) (count & mask) * ENTRY;
+        ring.putLong(at, sim.steps);
+        ring.putLong(at + 8, pcWord | (long) sim.lastEa << 32);
+        ring.putLong(at + 16, g[0] | (long) g[1] << 16 | (long) g[2] << 32 | (long) g[3] << 48);
+        ring.putLong(at + 24, x[1] | (long) x[2] << 16 | (long) x[3] << 32 | (long) (sim.cc | sim.mfr << 4) << 48);
+        ring.putLong(at + 32, f[0] | (long) f[1] << 16);
+        count++;
+    }
+
+    // ========== Dump ==========
+    // Retained entries, oldest first (at most two bulk writes around the wrap point)
+    void dump(Path p) throws IOException {
+        int cap = capacity();
+        int n = (int) Math.min(count, cap);
+        int first = (count > cap) ? (int) (count & mask) : 0;
+
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        head.putInt(MAGIC).putInt(VERSION).putInt(ring.order() == ByteOrder.BIG_ENDIAN ? 0 : 1)
+                .putInt(ENTRY).putInt(cap).putLong(count).flip();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, head);
+            int tail = Math.min(n, cap - first);
+            writeFully(ch, ring.slice(first * ENTRY, tail * ENTRY));
+            writeFully(ch, ring.slice(0, (n - tail) * ENTRY));
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+
+    // ========== Decoder ==========
+    public static void main(String[] args) throws Exception {
+        Path in = Paths.get("output.trace");
+        Path mapIn = Paths.get("output.map");
+        Path listIn = Paths.get("output.lst");
+        Path out = null;
+        int last = Integer.MAX_VALUE;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--map": mapIn = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "--list": listIn = Paths.get(Simulator6461.argValue(args, i++)); break;
+                case "--last": last = Assembler6461.parseDecimal(Simulator6461.argValue(args, i++), 0); break;
+                case "-o": out = Paths.get(Simulator6461.argValue(args, i++)); break;
+                default: in = Paths.get(args[i]);
+            }
+        }
+
+        SourceLines lines = new SourceLines(Files.exists(mapIn) ? Assembler6461.readSourceMap(mapIn) : List.of(),
+                Files.exists(listIn) ? Files.readAllLines(listIn) : List.of());
+        Writer w = (out == null)
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : Files.newBufferedWriter(out);
+        try {
+            decode(in, lines, last, w);
+        } finally {
+            w.flush();
+            if (out != null) w.close();
+        }
+    }
+
+    static void decode(Path in, SourceLines lines, int last, Writer w) throws IOException {
+        ByteBuffer b;
+        try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ)) {
+            b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (b.remaining() < HEADER || b.getInt(0) != MAGIC) throw new IllegalArgumentException(in + " is not a trace dump");
+        if (b.getInt(4) != VERSION || b.getInt(12) != ENTRY) {
+            throw new IllegalArgumentException("Unsupported trace dump version " + b.getInt(4) + " in " + in + " (expected " + VERSION + ")");
+        }
+        long total = b.getLong(20);
+        b.order(b.getInt(8) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int n = (b.capacity() - HEADER) / ENTRY;
+        int from = Math.max(0, n - last);
+
+        w.write("Trace: " + n + " of " + total + " step(s)" + (from > 0 ? ", last " + (n - from) + " shown" : ""));
+        w.write(System.lineSeparator());
+        for (int k = from; k < n; k++) {
+            int at = HEADER + k * ENTRY;
+            long pcWord = b.getLong(at + 8);
+            int pc = (int) pcWord & 0xFFFF;
+            int word = (int) (pcWord >>> 16) & 0xFFFF;
+            int ea = (int) (pcWord >> 32);
+            w.write(String.format("%10d %s %s %s  %-36s %s", b.getLong(at), Assembler6461.fmt6(pc),
+                    Assembler6461.fmt6(word), ea < 0 ? "------" : Assembler6461.fmt6(ea),
+                    changes(b, at, k > from ? at - ENTRY : -1), lines.at(pc, word)).stripTrailing());
+            w.write(System.lineSeparator());
+        }
+    }
+
+    private static final String[] REGS = { "R0", "R1", "R2", "R3", "X1", "X2", "X3", null, "FR0", "FR1" }; // 7: flags
+
+    // Registers that differ from the previous entry (prev < 0: the first shown, list all)
+    private static String changes(ByteBuffer b, int at, int prev) {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < REGS.length; r++) {
+            if (REGS[r] == null) continue;
+            int v = field(b, at, r);
+            if (prev >= 0 && v == field(b, prev, r)) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(REGS[r]).append('=').append(Assembler6461.fmt6(v));
+        }
+        int flags = field(b, at, 7);
+        if (prev < 0 || flags != field(b, prev, 7)) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append("CC=").append(bits4(flags)).append(" MFR=").append(bits4(flags >>> 4));
+        }
+        return sb.toString();
+    }
+
+    // 16-bit field r of the register longs: 0..3 R0..R3, 4..6 X1..X3, 7 CC | MFR << 4, 8..9 FR0..FR1
+    private static int field(ByteBuffer b, int at, int r) {
+        return (int) (b.getLong(at + 16 + 8 * (r / 4)) >>> (16 * (r % 4))) & 0xFFFF;
+    }
+
+    private static String bits4(int v) {
+        StringBuilder sb = new StringBuilder();
+        for (int b = 3; b >= 0; b--) sb.append((v >>> b) & 1);
+        return sb.toString();
+    }
+
+    // Address -> "line N: <listing text>" via the source map entry holding it and the listing
+    // line at that entry's address; falls back to disassembly.
+    static class SourceLines {
+        final TreeMap<Integer, Assembler6461.MapEntry> entries = new TreeMap<>();
+        final Map<Integer, String> listing = new HashMap<>();
+
+        SourceLines(List<Assembler6461.MapEntry> map, List<String> lst) {
+            for (Assembler6461.MapEntry e : map) if (e.words > 0) entries.put(e.addr, e);
+            for (String line : lst) {
+                if (line.length() > 14 && line.matches("[0-7]{6} [0-7]{6} .*")) {
+                    listing.put(Integer.parseInt(line.substring(0, 6), 8), line.substring(14).trim());
+                }
+            }
+        }
+
+        String at(int pc, int word) {
+            Map.Entry<Integer, Assembler6461.MapEntry> e = entries.floorEntry(pc);
+            if (e != null && pc < e.getKey() + e.getValue().words) {
+                String text = listing.get(e.getKey());
+                if (text != null) return "line " + e.getValue().lineNo + ": " + text;
+            }
+            return Disassembler6461.decode(word);
+        }
+    }
+}